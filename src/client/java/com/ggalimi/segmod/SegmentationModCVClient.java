@@ -1,14 +1,20 @@
 package com.ggalimi.segmod;
 
+import com.ggalimi.segmod.ipc.FrameStreamServer;
 import com.ggalimi.segmod.render.FrameCapture;
+import com.ggalimi.segmod.render.FrameDeduplicator;
 import net.fabricmc.api.ClientModInitializer;
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientLifecycleEvents;
 import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientTickEvents;
 import net.fabricmc.fabric.api.client.keybinding.v1.KeyBindingHelper;
+import net.fabricmc.fabric.api.client.networking.v1.ClientPlayConnectionEvents;
 import net.fabricmc.fabric.api.client.rendering.v1.WorldRenderEvents;
 import net.minecraft.client.option.KeyBinding;
 import net.minecraft.client.util.InputUtil;
 import org.lwjgl.glfw.GLFW;
 
+import java.io.IOException;
+
 /**
  * Client-side initialization for the Segmentation Mod.
  * Sets up automatic frame capture system with keybindings.
@@ -53,11 +59,28 @@ public class SegmentationModCVClient implements ClientModInitializer {
 			FrameCapture.tick();
 		});
 		
+		// A new world's first frame must not be compared against the last world's
+		ClientPlayConnectionEvents.JOIN.register((handler, sender, client) -> FrameDeduplicator.reset());
+		ClientPlayConnectionEvents.DISCONNECT.register((handler, client) -> FrameDeduplicator.reset());
+		
 		// Register world render event to capture after world but before HUD
 		WorldRenderEvents.AFTER_ENTITIES.register(context -> {
 			FrameCapture.onWorldRendered(context);
 		});
 		
+		// Local frame streaming for training loops (-Dsegmod.stream=true)
+		if (Boolean.getBoolean("segmod.stream")) {
+			try {
+				FrameStreamServer.start();
+			} catch (IOException e) {
+				System.out.println("[SegMod] Could not start frame stream: " + e.getMessage());
+			}
+			ClientLifecycleEvents.CLIENT_STOPPING.register(client -> FrameStreamServer.stop());
+		}
+		
+		// Flush queued frame writes and sync the manifest on exit
+		ClientLifecycleEvents.CLIENT_STOPPING.register(client -> FrameCapture.shutdown());
+		
 		System.out.println("[SegMod] Frame capture initialized!");
 		System.out.println("[SegMod] Press F8 to capture a single frame");
 		System.out.println("[SegMod] Press F9 to toggle automatic capture");
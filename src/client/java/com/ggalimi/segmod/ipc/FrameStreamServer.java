@@ -0,0 +1,381 @@
+package com.ggalimi.segmod.ipc;
+
+import com.ggalimi.segmod.render.CameraPoseOverride;
+import com.ggalimi.segmod.render.FrameCapture;
+import com.google.gson.JsonObject;
+import jdk.net.ExtendedSocketOptions;
+import jdk.net.UnixDomainPrincipal;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.util.math.Vec3d;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Local frame streaming for training loops: a Unix domain socket for commands
+ * and notifications, plus a {@link SharedFrameRing} for the pixel data.
+ *
+ * Captured frames are copied raw into the ring straight from the capture
+ * pipeline (no encoding, no disk) and every connected client is sent a
+ * {@code FRAME} line pointing at them. Commands, one per line:
+ * <pre>
+ *   CAPTURE                      request a capture; replies OK, the frame arrives as a FRAME line
+ *   POSE x y z yaw pitch         place the camera at an absolute pose
+ *   POSE CLEAR                   return the camera to the player
+ *   STATUS                       replies STATUS {json}
+ * </pre>
+ * Notifications: {@code FRAME <sequence> <frame number> <width> <height>};
+ * read the frame with {@link SharedFrameRing#read(long)}.
+ *
+ * The socket and ring are only accessible to the user running the game: both
+ * files are made owner-only, and connections from other users are dropped.
+ *
+ * Commands act on a {@link Commands} target: the game by default, a stand-in
+ * in tests. Nothing else here touches Minecraft, so the server runs without it.
+ */
+public class FrameStreamServer {
+    
+    /** {@code $XDG_RUNTIME_DIR/segmod.sock} (a per-user directory), or {@code /tmp/segmod.sock} without it. */
+    public static final Path DEFAULT_SOCKET = defaultSocket();
+    public static final Path DEFAULT_RING = Path.of("/dev/shm/segmod_ring");
+    
+    private static ServerSocketChannel server;
+    private static SharedFrameRing ring;
+    private static Path socketPath;
+    private static Path ringPath;
+    private static UserPrincipal owner;
+    private static Commands commands;
+    private static final List<Connection> connections = new CopyOnWriteArrayList<>();
+    private static volatile long framesPublished = 0;
+    private static volatile long framesDropped = 0;
+    
+    /**
+     * What CAPTURE and POSE act on. Called on a connection's reader thread.
+     */
+    public interface Commands {
+        void requestCapture();
+        
+        void setPose(double x, double y, double z, float yaw, float pitch);
+        
+        void clearPose();
+    }
+    
+    /**
+     * Starts the server with the default paths, 4 slots and frames up to 1920x1080.
+     */
+    public static void start() throws IOException {
+        start(DEFAULT_SOCKET, DEFAULT_RING, 4, 1920, 1080);
+    }
+    
+    /**
+     * Starts the server.
+     *
+     * @param socket Unix domain socket path
+     * @param ringFile Shared-memory ring file, normally under /dev/shm
+     * @param slots Frames kept in the ring before the oldest is overwritten
+     * @param maxWidth Largest frame width to stream
+     * @param maxHeight Largest frame height to stream
+     */
+    public static void start(Path socket, Path ringFile, int slots, int maxWidth, int maxHeight) throws IOException {
+        start(socket, ringFile, slots, maxWidth, maxHeight, new ClientCommands());
+    }
+    
+    /**
+     * Starts the server with commands going to the given target instead of the game.
+     */
+    public static synchronized void start(Path socket, Path ringFile, int slots, int maxWidth, int maxHeight,
+                                          Commands target) throws IOException {
+        if (server != null) {
+            return;
+        }
+        commands = target;
+        ring = SharedFrameRing.create(ringFile, Math.max(1, slots), maxWidth * maxHeight);
+        
+        // A socket file left behind by a crashed session would make bind() fail
+        Files.deleteIfExists(socket);
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket));
+        restrictToOwner(socket);
+        owner = Files.getOwner(socket);
+        socketPath = socket;
+        ringPath = ringFile;
+        
+        Thread acceptor = new Thread(FrameStreamServer::acceptLoop, "SegMod Stream Accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        
+        System.out.println("[SegMod] Frame stream listening on " + socket + ", ring " + ringFile
+            + " (" + ring.getSlotCount() + " x " + ring.getSlotSize() / (1024 * 1024) + " MB)");
+    }
+    
+    /**
+     * Stops the server, disconnects clients and removes the socket and ring files.
+     */
+    public static synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+        try {
+            server.close();
+            for (Connection connection : connections) {
+                connection.close();
+            }
+            ring.close();
+            Files.deleteIfExists(socketPath);
+            Files.deleteIfExists(ringPath);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        server = null;
+        ring = null;
+        commands = null;
+    }
+    
+    public static boolean isRunning() {
+        return server != null;
+    }
+    
+    /**
+     * Copies a captured frame into the ring and notifies all clients.
+     * Called on the render thread from {@link FrameCapture}.
+     *
+     * @param rgb RGB readback, 3 bytes per pixel, bottom-up rows
+     * @param metres Metric depth, 0 = sky
+     * @param depthBottomUp Row order of {@code metres}
+     * @param classIds Class IDs, top-down rows
+     * @param instanceIds Instance IDs, top-down rows
+     */
+    public static void publish(int frameNumber, int width, int height, ByteBuffer rgb, float[] metres,
+                               boolean depthBottomUp, int[] classIds, int[] instanceIds) {
+        SharedFrameRing target = ring;
+        if (target == null) {
+            return;
+        }
+        long sequence = target.publish(frameNumber, width, height, rgb, metres, depthBottomUp, classIds, instanceIds);
+        if (sequence < 0) {
+            framesDropped++;
+            broadcast("ERROR frame " + frameNumber + " (" + width + "x" + height + ") exceeds the ring slot size");
+            return;
+        }
+        framesPublished++;
+        broadcast("FRAME " + sequence + " " + frameNumber + " " + width + " " + height);
+    }
+    
+    private static void broadcast(String line) {
+        for (Connection connection : connections) {
+            connection.send(line);
+        }
+    }
+    
+    private static void acceptLoop() {
+        ServerSocketChannel listening = server;
+        while (listening.isOpen()) {
+            try {
+                SocketChannel channel = listening.accept();
+                if (!isOwner(channel)) {
+                    // Could have connected before the socket file was restricted
+                    channel.close();
+                    continue;
+                }
+                Connection connection = new Connection(channel);
+                connections.add(connection);
+                connection.start();
+            } catch (IOException e) {
+                if (listening.isOpen()) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Handles one command line and returns the reply.
+     */
+    private static String handleCommand(String line) {
+        String[] parts = line.trim().split("\\s+");
+        switch (parts[0].toUpperCase(Locale.ROOT)) {
+            case "CAPTURE":
+                commands.requestCapture();
+                return "OK CAPTURE";
+            case "POSE":
+                if (parts.length == 2 && parts[1].equalsIgnoreCase("CLEAR")) {
+                    commands.clearPose();
+                    return "OK POSE";
+                }
+                if (parts.length != 6) {
+                    return "ERROR usage: POSE x y z yaw pitch | POSE CLEAR";
+                }
+                try {
+                    double x = Double.parseDouble(parts[1]);
+                    double y = Double.parseDouble(parts[2]);
+                    double z = Double.parseDouble(parts[3]);
+                    float yaw = Float.parseFloat(parts[4]);
+                    float pitch = Float.parseFloat(parts[5]);
+                    commands.setPose(x, y, z, yaw, pitch);
+                    return "OK POSE";
+                } catch (NumberFormatException e) {
+                    return "ERROR bad number: " + e.getMessage();
+                }
+            case "STATUS":
+                return "STATUS " + statusJson();
+            default:
+                return "ERROR unknown command: " + parts[0];
+        }
+    }
+    
+    private static Path defaultSocket() {
+        String runtimeDir = System.getenv("XDG_RUNTIME_DIR");
+        if (runtimeDir != null && !runtimeDir.isEmpty()) {
+            return Path.of(runtimeDir, "segmod.sock");
+        }
+        return Path.of("/tmp/segmod.sock");
+    }
+    
+    private static void restrictToOwner(Path path) throws IOException {
+        try {
+            Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system; the directory's permissions apply
+        }
+    }
+    
+    /**
+     * Whether the peer runs as the same user as the game. Platforms without peer
+     * credentials rely on the socket file permissions alone.
+     */
+    private static boolean isOwner(SocketChannel channel) {
+        try {
+            UnixDomainPrincipal peer = channel.getOption(ExtendedSocketOptions.SO_PEERCRED);
+            return peer.user().equals(owner);
+        } catch (UnsupportedOperationException | IOException e) {
+            return true;
+        }
+    }
+    
+    private static String statusJson() {
+        JsonObject status = new JsonObject();
+        status.addProperty("ring", ringPath.toString());
+        status.addProperty("slots", ring.getSlotCount());
+        status.addProperty("slot_size", ring.getSlotSize());
+        status.addProperty("latest_sequence", ring.getLatestSequence());
+        status.addProperty("frames_published", framesPublished);
+        status.addProperty("frames_dropped", framesDropped);
+        status.addProperty("clients", connections.size());
+        return status.toString();
+    }
+    
+    /**
+     * Commands for the running game, each handed to the client thread.
+     */
+    private static class ClientCommands implements Commands {
+        private final MinecraftClient client = MinecraftClient.getInstance();
+        
+        @Override
+        public void requestCapture() {
+            client.execute(FrameCapture::requestCapture);
+        }
+        
+        @Override
+        public void setPose(double x, double y, double z, float yaw, float pitch) {
+            Vec3d position = new Vec3d(x, y, z);
+            client.execute(() -> CameraPoseOverride.set(position, yaw, pitch));
+        }
+        
+        @Override
+        public void clearPose() {
+            client.execute(CameraPoseOverride::clear);
+        }
+    }
+    
+    /**
+     * One connected client: a reader thread for commands and a writer thread
+     * draining its outbound queue, so a slow client never blocks the render thread.
+     */
+    private static class Connection {
+        private final SocketChannel channel;
+        private final BlockingQueue<String> outbound = new LinkedBlockingQueue<>();
+        private volatile boolean open = true;
+        
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+        
+        void start() {
+            Thread reader = new Thread(this::readLoop, "SegMod Stream Reader");
+            Thread writer = new Thread(this::writeLoop, "SegMod Stream Writer");
+            reader.setDaemon(true);
+            writer.setDaemon(true);
+            reader.start();
+            writer.start();
+        }
+        
+        void send(String line) {
+            if (open) {
+                outbound.add(line);
+            }
+        }
+        
+        private void readLoop() {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (!line.isBlank()) {
+                        send(handleCommand(line));
+                    }
+                }
+            } catch (IOException e) {
+                // Client went away
+            }
+            close();
+        }
+        
+        private void writeLoop() {
+            try {
+                OutputStream out = Channels.newOutputStream(channel);
+                while (open) {
+                    String line = outbound.take();
+                    if (!open) {
+                        break;
+                    }
+                    out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                }
+            } catch (IOException | InterruptedException e) {
+                // Client went away
+            }
+            close();
+        }
+        
+        void close() {
+            if (!open) {
+                return;
+            }
+            open = false;
+            outbound.add(""); // Wake the writer
+            connections.remove(this);
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.ggalimi.segmod.ipc;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Command-line test client for {@link FrameStreamServer}. Needs no Minecraft
+ * classes, so it runs on the same box as the game with just this package on
+ * the classpath:
+ * <pre>
+ *   java -cp build/classes/java/client com.ggalimi.segmod.ipc.FrameStreamTestClient [frames] [socket] [ring]
+ * </pre>
+ * Requests the given number of captures (default 5), reads each frame from the
+ * shared-memory ring and prints its size, depth range, class count and latency.
+ */
+public class FrameStreamTestClient {
+    
+    // Same defaults as FrameStreamServer, copied so the client needs only this class and SharedFrameRing
+    private static final String DEFAULT_RING = "/dev/shm/segmod_ring";
+    
+    public static void main(String[] args) throws Exception {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        Path socket = args.length > 1 ? Path.of(args[1]) : defaultSocket();
+        Path ringFile = args.length > 2 ? Path.of(args[2]) : Path.of(DEFAULT_RING);
+        
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(socket));
+            BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            OutputStream out = Channels.newOutputStream(channel);
+            
+            send(out, "STATUS");
+            System.out.println(readReply(in));
+            
+            try (SharedFrameRing ring = SharedFrameRing.open(ringFile)) {
+                for (int i = 0; i < frames; i++) {
+                    long start = System.nanoTime();
+                    send(out, "CAPTURE");
+                    
+                    // Skip the OK reply; the next FRAME is ours (or a capture triggered at the same time)
+                    String line;
+                    while ((line = in.readLine()) != null && !line.startsWith("FRAME ") && !line.startsWith("ERROR")) {
+                        // Keep reading
+                    }
+                    if (line == null) {
+                        System.out.println("Server closed the connection");
+                        return;
+                    }
+                    if (line.startsWith("ERROR")) {
+                        System.out.println(line);
+                        continue;
+                    }
+                    
+                    long sequence = Long.parseLong(line.split(" ")[1]);
+                    SharedFrameRing.Frame frame = ring.read(sequence);
+                    long micros = (System.nanoTime() - start) / 1000;
+                    if (frame == null) {
+                        System.out.println("Frame " + sequence + " was overwritten before it could be read");
+                        continue;
+                    }
+                    printFrame(frame, micros);
+                }
+            }
+        }
+    }
+    
+    private static void printFrame(SharedFrameRing.Frame frame, long micros) {
+        float minDepth = Float.MAX_VALUE;
+        float maxDepth = 0.0f;
+        int sky = 0;
+        for (float d : frame.depth) {
+            if (d == 0.0f) {
+                sky++;
+                continue;
+            }
+            minDepth = Math.min(minDepth, d);
+            maxDepth = Math.max(maxDepth, d);
+        }
+        Set<Integer> classes = new HashSet<>();
+        for (int c : frame.classIds) {
+            classes.add(c);
+        }
+        int instances = 0;
+        for (int id : frame.instanceIds) {
+            instances = Math.max(instances, id);
+        }
+        System.out.printf("frame %d: %dx%d, depth %.2f-%.2f m (%d sky px), %d classes, %d instances, %d us%n",
+            frame.frameNumber, frame.width, frame.height, sky == frame.depth.length ? 0.0f : minDepth, maxDepth,
+            sky, classes.size(), instances, micros);
+    }
+    
+    private static void send(OutputStream out, String command) throws Exception {
+        out.write((command + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+    
+    private static String readReply(BufferedReader in) throws Exception {
+        String line;
+        while ((line = in.readLine()) != null && line.startsWith("FRAME ")) {
+            // Notifications can interleave with replies
+        }
+        return line;
+    }
+    
+    private static Path defaultSocket() {
+        String runtimeDir = System.getenv("XDG_RUNTIME_DIR");
+        if (runtimeDir != null && !runtimeDir.isEmpty()) {
+            return Path.of(runtimeDir, "segmod.sock");
+        }
+        return Path.of("/tmp/segmod.sock");
+    }
+}
@@ -0,0 +1,268 @@
+package com.ggalimi.segmod.ipc;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+/**
+ * Fixed-size ring of frame slots in a memory-mapped file (normally under /dev/shm),
+ * shared between the capture pipeline (single writer) and local readers.
+ *
+ * File layout, all little-endian:
+ * <pre>
+ *   0   long  magic "SEGRING1"
+ *   8   int   version
+ *   12  int   slot count
+ *   16  long  slot size in bytes (including the slot header)
+ *   24  long  sequence number of the latest published frame (0 = none)
+ *   64  slot 0, slot 1, ...
+ * </pre>
+ * Slot layout:
+ * <pre>
+ *   0   long  sequence number (odd while being written, even when complete)
+ *   8   int   frame number
+ *   12  int   width
+ *   16  int   height
+ *   20  int   payload length
+ *   64  payload: RGB (3 bytes/px), depth (float32 metres, 0 = sky),
+ *       class IDs (int32), instance IDs (int32); all top-down rows
+ * </pre>
+ * Frame N (1-based sequence 2N) goes to slot (N - 1) % slotCount. The slot's
+ * sequence number works as a seqlock: a reader copies the payload, then checks
+ * the sequence is unchanged and even, otherwise the slot was overwritten.
+ */
+public class SharedFrameRing implements AutoCloseable {
+    
+    public static final long MAGIC = 0x31474E4952474553L; // "SEGRING1" little-endian
+    public static final int VERSION = 1;
+    public static final int FILE_HEADER_BYTES = 64;
+    public static final int SLOT_HEADER_BYTES = 64;
+    /** RGB + float32 depth + int32 class + int32 instance. */
+    public static final int BYTES_PER_PIXEL = 3 + 4 + 4 + 4;
+    
+    private static final int OFFSET_LATEST = 24;
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int slotCount;
+    private final long slotSize;
+    private long frames = 0;
+    
+    private SharedFrameRing(FileChannel channel, MappedByteBuffer buffer, int slotCount, long slotSize) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.slotCount = slotCount;
+        this.slotSize = slotSize;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+    
+    /**
+     * Creates (or replaces) the ring file for writing. On POSIX file systems the
+     * file is created readable and writable by the owner only.
+     *
+     * @param path Ring file, e.g. /dev/shm/segmod_ring
+     * @param slotCount Number of frames kept before the oldest is overwritten
+     * @param maxPixels Largest frame (width * height) a slot must hold
+     */
+    public static SharedFrameRing create(Path path, int slotCount, int maxPixels) throws IOException {
+        long slotSize = align(SLOT_HEADER_BYTES + (long) maxPixels * BYTES_PER_PIXEL);
+        long fileSize = FILE_HEADER_BYTES + slotSize * slotCount;
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IOException("Ring of " + slotCount + " x " + slotSize + " bytes exceeds 2 GiB");
+        }
+        
+        // Recreated rather than truncated, so the permissions below apply from the first byte
+        Files.deleteIfExists(path);
+        Set<OpenOption> options = Set.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel channel;
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            FileAttribute<?> ownerOnly = PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"));
+            channel = FileChannel.open(path, options, ownerOnly);
+        } else {
+            channel = FileChannel.open(path, options);
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+        SharedFrameRing ring = new SharedFrameRing(channel, buffer, slotCount, slotSize);
+        buffer.putInt(8, VERSION);
+        buffer.putInt(12, slotCount);
+        buffer.putLong(16, slotSize);
+        LONGS.setRelease(buffer, OFFSET_LATEST, 0L);
+        // Magic last, so a reader never sees a half-initialized header
+        LONGS.setRelease(buffer, 0, MAGIC);
+        return ring;
+    }
+    
+    /**
+     * Maps an existing ring file for reading.
+     */
+    public static SharedFrameRing open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if ((long) LONGS.getAcquire(buffer, 0) != MAGIC || buffer.getInt(8) != VERSION) {
+            channel.close();
+            throw new IOException("Not a SegMod frame ring: " + path);
+        }
+        return new SharedFrameRing(channel, buffer, buffer.getInt(12), buffer.getLong(16));
+    }
+    
+    /**
+     * Writes one frame into the next slot. Rows are flipped to top-down where needed.
+     *
+     * @param frameNumber Capture frame number
+     * @param rgb RGB readback, 3 bytes per pixel, bottom-up rows
+     * @param metres Metric depth, 0 = sky
+     * @param depthBottomUp Row order of {@code metres}
+     * @param classIds Class IDs, top-down rows
+     * @param instanceIds Instance IDs, top-down rows
+     * @return The published sequence number, or -1 if the frame does not fit in a slot
+     */
+    public synchronized long publish(int frameNumber, int width, int height, ByteBuffer rgb,
+                                     float[] metres, boolean depthBottomUp, int[] classIds, int[] instanceIds) {
+        int pixels = width * height;
+        long payload = (long) pixels * BYTES_PER_PIXEL;
+        if (SLOT_HEADER_BYTES + payload > slotSize) {
+            return -1;
+        }
+        
+        long sequence = (frames + 1) * 2;
+        int slot = (int) (FILE_HEADER_BYTES + (frames % slotCount) * slotSize);
+        LONGS.setRelease(buffer, slot, sequence - 1); // Odd: being written
+        VarHandle.storeStoreFence(); // Readers must see the odd sequence before any payload write
+        
+        buffer.putInt(slot + 8, frameNumber);
+        buffer.putInt(slot + 12, width);
+        buffer.putInt(slot + 16, height);
+        buffer.putInt(slot + 20, (int) payload);
+        
+        int rgbStart = slot + SLOT_HEADER_BYTES;
+        int depthStart = rgbStart + pixels * 3;
+        int classStart = depthStart + pixels * 4;
+        int instanceStart = classStart + pixels * 4;
+        int rowBytes = width * 3;
+        for (int y = 0; y < height; y++) {
+            buffer.put(rgbStart + y * rowBytes, rgb, (height - 1 - y) * rowBytes, rowBytes);
+        }
+        FloatBuffer depth = buffer.slice(depthStart, pixels * 4).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        if (depthBottomUp) {
+            for (int y = 0; y < height; y++) {
+                depth.put(y * width, metres, (height - 1 - y) * width, width);
+            }
+        } else {
+            depth.put(0, metres, 0, pixels);
+        }
+        buffer.slice(classStart, pixels * 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(0, classIds, 0, pixels);
+        buffer.slice(instanceStart, pixels * 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(0, instanceIds, 0, pixels);
+        
+        LONGS.setRelease(buffer, slot, sequence);  // Even: complete
+        LONGS.setRelease(buffer, OFFSET_LATEST, sequence);
+        frames++;
+        return sequence;
+    }
+    
+    /**
+     * A frame copied out of the ring.
+     */
+    public static class Frame {
+        public final long sequence;
+        public final int frameNumber;
+        public final int width;
+        public final int height;
+        /** RGB, 3 bytes per pixel, top-down rows. */
+        public final byte[] rgb;
+        public final float[] depth;
+        public final int[] classIds;
+        public final int[] instanceIds;
+        
+        Frame(long sequence, int frameNumber, int width, int height, byte[] rgb, float[] depth, int[] classIds, int[] instanceIds) {
+            this.sequence = sequence;
+            this.frameNumber = frameNumber;
+            this.width = width;
+            this.height = height;
+            this.rgb = rgb;
+            this.depth = depth;
+            this.classIds = classIds;
+            this.instanceIds = instanceIds;
+        }
+    }
+    
+    /**
+     * Copies a published frame out of the ring.
+     *
+     * @param sequence Sequence number from a FRAME notification
+     * @return The frame, or null if it has already been overwritten
+     */
+    public Frame read(long sequence) {
+        long index = sequence / 2 - 1;
+        int slot = (int) (FILE_HEADER_BYTES + (index % slotCount) * slotSize);
+        if ((long) LONGS.getAcquire(buffer, slot) != sequence) {
+            return null;
+        }
+        
+        int frameNumber = buffer.getInt(slot + 8);
+        int width = buffer.getInt(slot + 12);
+        int height = buffer.getInt(slot + 16);
+        if (width <= 0 || height <= 0 || SLOT_HEADER_BYTES + (long) width * height * BYTES_PER_PIXEL > slotSize) {
+            return null; // Header torn by a writer that lapped us after the first check
+        }
+        int pixels = width * height;
+        int rgbStart = slot + SLOT_HEADER_BYTES;
+        int depthStart = rgbStart + pixels * 3;
+        int classStart = depthStart + pixels * 4;
+        int instanceStart = classStart + pixels * 4;
+        
+        byte[] rgb = new byte[pixels * 3];
+        float[] depth = new float[pixels];
+        int[] classIds = new int[pixels];
+        int[] instanceIds = new int[pixels];
+        buffer.get(rgbStart, rgb);
+        buffer.slice(depthStart, pixels * 4).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(0, depth);
+        buffer.slice(classStart, pixels * 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(0, classIds);
+        buffer.slice(instanceStart, pixels * 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(0, instanceIds);
+        
+        // Seqlock check: the writer may have lapped us while we copied
+        VarHandle.acquireFence();
+        if ((long) LONGS.getAcquire(buffer, slot) != sequence) {
+            return null;
+        }
+        return new Frame(sequence, frameNumber, width, height, rgb, depth, classIds, instanceIds);
+    }
+    
+    /**
+     * Sequence number of the latest published frame, 0 if none.
+     */
+    public long getLatestSequence() {
+        return (long) LONGS.getAcquire(buffer, OFFSET_LATEST);
+    }
+    
+    public int getSlotCount() {
+        return slotCount;
+    }
+    
+    public long getSlotSize() {
+        return slotSize;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+    
+    private static long align(long bytes) {
+        return (bytes + 4095) & ~4095L;
+    }
+}
@@ -0,0 +1,69 @@
+package com.ggalimi.segmod.mixin.client;
+
+import com.ggalimi.segmod.render.CameraPoseOverride;
+import com.ggalimi.segmod.render.CameraRig;
+import com.ggalimi.segmod.render.OffscreenCaptureTarget;
+import net.minecraft.client.render.Camera;
+import net.minecraft.entity.Entity;
+import net.minecraft.util.math.Vec3d;
+import net.minecraft.world.BlockView;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * Moves the camera after vanilla has placed it at the player: first to the
+ * pose override if one is set, then to the active camera rig view, so each
+ * rig view renders from its own pose.
+ */
+@Mixin(Camera.class)
+public abstract class CameraMixin {
+    
+    @Shadow
+    protected abstract void setRotation(float yaw, float pitch);
+    
+    @Shadow
+    protected abstract void setPos(Vec3d pos);
+    
+    @Shadow
+    public abstract Vec3d getPos();
+    
+    @Shadow
+    public abstract float getYaw();
+    
+    @Shadow
+    public abstract float getPitch();
+    
+    @Inject(method = "update", at = @At("TAIL"))
+    private void onUpdate(BlockView area, Entity focusedEntity, boolean thirdPerson, boolean inverseView,
+                          float tickDelta, CallbackInfo ci) {
+        if (CameraPoseOverride.isActive()) {
+            setPos(CameraPoseOverride.getPosition());
+            setRotation(CameraPoseOverride.getYaw(), CameraPoseOverride.getPitch());
+        }
+        
+        CameraRig.View view = OffscreenCaptureTarget.getActiveView();
+        if (view == null) {
+            return;
+        }
+        float baseYaw = getYaw();
+        float basePitch = getPitch();
+        
+        // Offset along the player camera's axes
+        Vec3d forward = Vec3d.fromPolar(basePitch, baseYaw);
+        Vec3d right = Vec3d.fromPolar(0.0f, baseYaw + 90.0f);
+        Vec3d up = right.crossProduct(forward);
+        setPos(getPos()
+            .add(right.multiply(view.right))
+            .add(up.multiply(view.up))
+            .add(forward.multiply(view.forward)));
+        
+        if (view.worldAligned) {
+            setRotation(view.yaw, view.pitch);
+        } else {
+            setRotation(baseYaw + view.yaw, basePitch + view.pitch);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.ggalimi.segmod.mixin.client;
+
+import com.ggalimi.segmod.render.FrameCapture;
+import net.minecraft.client.render.GameRenderer;
+import net.minecraft.client.render.RenderTickCounter;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * Runs due offscreen captures inside the frame's render pass, just before the
+ * window's own world render, so they see the same render state as a normal frame.
+ */
+@Mixin(GameRenderer.class)
+public class GameRendererCaptureMixin {
+    
+    @Inject(
+        method = "render",
+        at = @At(
+            value = "INVOKE",
+            target = "Lnet/minecraft/client/render/GameRenderer;renderWorld(Lnet/minecraft/client/render/RenderTickCounter;)V"
+        )
+    )
+    private void onBeforeRenderWorld(RenderTickCounter tickCounter, boolean tick, CallbackInfo ci) {
+        FrameCapture.onBeforeWorldRender();
+    }
+}
@@ -0,0 +1,26 @@
+package com.ggalimi.segmod.mixin.client;
+
+import com.ggalimi.segmod.render.CameraRig;
+import com.ggalimi.segmod.render.OffscreenCaptureTarget;
+import net.minecraft.client.render.Camera;
+import net.minecraft.client.render.GameRenderer;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+/**
+ * Applies a camera rig view's fixed FOV (e.g. 90 degrees for cubemap faces)
+ * to the projection while that view is rendered.
+ */
+@Mixin(GameRenderer.class)
+public class GameRendererFovMixin {
+    
+    @Inject(method = "getFov", at = @At("HEAD"), cancellable = true)
+    private void onGetFov(Camera camera, float tickDelta, boolean changingFov, CallbackInfoReturnable<Double> cir) {
+        CameraRig.View view = OffscreenCaptureTarget.getActiveView();
+        if (view != null && view.fov > 0.0) {
+            cir.setReturnValue(view.fov);
+        }
+    }
+}
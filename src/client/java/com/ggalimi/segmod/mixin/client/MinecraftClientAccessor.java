@@ -0,0 +1,20 @@
+package com.ggalimi.segmod.mixin.client;
+
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.gl.Framebuffer;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Mutable;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+/**
+ * Lets the offscreen capture target temporarily replace the main framebuffer,
+ * so everything the world renderer draws into {@code client.getFramebuffer()}
+ * lands in the capture target instead.
+ */
+@Mixin(MinecraftClient.class)
+public interface MinecraftClientAccessor {
+    
+    @Mutable
+    @Accessor("framebuffer")
+    void setFramebuffer(Framebuffer framebuffer);
+}
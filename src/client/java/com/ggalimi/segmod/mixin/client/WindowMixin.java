@@ -0,0 +1,31 @@
+package com.ggalimi.segmod.mixin.client;
+
+import com.ggalimi.segmod.render.OffscreenCaptureTarget;
+import net.minecraft.client.util.Window;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+/**
+ * Reports the offscreen capture resolution as the framebuffer size while the
+ * world is being rendered offscreen, so the projection aspect ratio and any
+ * window-sized passes (entity outlines) match the capture target.
+ */
+@Mixin(Window.class)
+public class WindowMixin {
+    
+    @Inject(method = "getFramebufferWidth", at = @At("HEAD"), cancellable = true)
+    private void onGetFramebufferWidth(CallbackInfoReturnable<Integer> cir) {
+        if (OffscreenCaptureTarget.isRendering()) {
+            cir.setReturnValue(OffscreenCaptureTarget.getWidth());
+        }
+    }
+    
+    @Inject(method = "getFramebufferHeight", at = @At("HEAD"), cancellable = true)
+    private void onGetFramebufferHeight(CallbackInfoReturnable<Integer> cir) {
+        if (OffscreenCaptureTarget.isRendering()) {
+            cir.setReturnValue(OffscreenCaptureTarget.getHeight());
+        }
+    }
+}
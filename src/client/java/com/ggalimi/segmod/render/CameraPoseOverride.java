@@ -0,0 +1,45 @@
+package com.ggalimi.segmod.render;
+
+import net.minecraft.util.math.Vec3d;
+
+/**
+ * Absolute camera pose that replaces the player's view (e.g. set by a training
+ * client over IPC). Camera rig offsets are applied on top of it.
+ *
+ * Only the camera moves, not the player, so the pose should stay within the
+ * loaded chunks around the player.
+ */
+public class CameraPoseOverride {
+    
+    private static boolean active = false;
+    private static Vec3d position = Vec3d.ZERO;
+    private static float yaw = 0.0f;
+    private static float pitch = 0.0f;
+    
+    public static void set(Vec3d newPosition, float newYaw, float newPitch) {
+        position = newPosition;
+        yaw = newYaw;
+        pitch = newPitch;
+        active = true;
+    }
+    
+    public static void clear() {
+        active = false;
+    }
+    
+    public static boolean isActive() {
+        return active;
+    }
+    
+    public static Vec3d getPosition() {
+        return position;
+    }
+    
+    public static float getYaw() {
+        return yaw;
+    }
+    
+    public static float getPitch() {
+        return pitch;
+    }
+}
@@ -0,0 +1,91 @@
+package com.ggalimi.segmod.render;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A set of cameras rigidly attached to the player camera, all captured at the
+ * same world tick (see {@link OffscreenCaptureTarget#setCameraRig}).
+ *
+ * Offsets are in the player camera's frame: +right, +up, +forward, in blocks.
+ * Rotations are added to the player camera's yaw/pitch, unless the view is
+ * world-aligned (cubemap faces), in which case they are absolute.
+ */
+public class CameraRig {
+    
+    /**
+     * One camera of the rig.
+     */
+    public static class View {
+        public final String name;
+        public final double right;
+        public final double up;
+        public final double forward;
+        public final float yaw;
+        public final float pitch;
+        public final boolean worldAligned;
+        /** Vertical FOV in degrees, or 0 to use the game's FOV setting. */
+        public final double fov;
+        
+        public View(String name, double right, double up, double forward,
+                    float yaw, float pitch, boolean worldAligned, double fov) {
+            this.name = name;
+            this.right = right;
+            this.up = up;
+            this.forward = forward;
+            this.yaw = yaw;
+            this.pitch = pitch;
+            this.worldAligned = worldAligned;
+            this.fov = fov;
+        }
+    }
+    
+    private final List<View> views = new ArrayList<>();
+    
+    public CameraRig add(View view) {
+        views.add(view);
+        return this;
+    }
+    
+    public List<View> getViews() {
+        return Collections.unmodifiableList(views);
+    }
+    
+    /**
+     * Largest distance of any view from the player camera, in blocks.
+     */
+    public double getMaxOffset() {
+        double max = 0.0;
+        for (View view : views) {
+            max = Math.max(max, Math.sqrt(view.right * view.right + view.up * view.up + view.forward * view.forward));
+        }
+        return max;
+    }
+    
+    /**
+     * Horizontal stereo pair centred on the player camera.
+     *
+     * @param baseline Distance between the two cameras in blocks
+     */
+    public static CameraRig stereo(double baseline) {
+        return new CameraRig()
+            .add(new View("left", -baseline / 2.0, 0.0, 0.0, 0.0f, 0.0f, false, 0.0))
+            .add(new View("right", baseline / 2.0, 0.0, 0.0, 0.0f, 0.0f, false, 0.0));
+    }
+    
+    /**
+     * Six world-aligned 90 degree faces at the player camera position.
+     * Use a square offscreen resolution so each face covers exactly 90 degrees both ways.
+     */
+    public static CameraRig cubemap() {
+        // Minecraft yaw: 0 = south (+Z), 90 = west (-X), 180 = north (-Z), 270 = east (+X); pitch 90 = down
+        return new CameraRig()
+            .add(new View("pos_x", 0.0, 0.0, 0.0, 270.0f, 0.0f, true, 90.0))
+            .add(new View("neg_x", 0.0, 0.0, 0.0, 90.0f, 0.0f, true, 90.0))
+            .add(new View("pos_y", 0.0, 0.0, 0.0, 180.0f, -90.0f, true, 90.0))
+            .add(new View("neg_y", 0.0, 0.0, 0.0, 180.0f, 90.0f, true, 90.0))
+            .add(new View("pos_z", 0.0, 0.0, 0.0, 0.0f, 0.0f, true, 90.0))
+            .add(new View("neg_z", 0.0, 0.0, 0.0, 180.0f, 0.0f, true, 90.0));
+    }
+}
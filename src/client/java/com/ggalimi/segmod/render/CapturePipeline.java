@@ -0,0 +1,606 @@
+package com.ggalimi.segmod.render;
+
+import com.ggalimi.segmod.util.BlockClassMap;
+import com.ggalimi.segmod.util.CaptureStatistics;
+import com.ggalimi.segmod.util.DepthExtractor;
+import com.ggalimi.segmod.util.FrameWriter;
+import com.ggalimi.segmod.util.NormalEdgeExtractor;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import net.minecraft.util.math.Vec3d;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferUShort;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The capture stages that run after the framebuffer readback: RGB and depth
+ * encoding, normals and edges, segmentation labels, stream publishing, pyramid
+ * levels, statistics and the frame's manifest record.
+ *
+ * It only sees read-back buffers and a {@link LabelSource}, never the client,
+ * so {@link FrameCapture} in game and the soak test outside it run the same
+ * code. The caller adds anything game-specific to the returned record and
+ * hands the capture to the {@link FrameWriter}.
+ */
+public class CapturePipeline {
+    
+    private DepthExtractor.DepthFormat depthFormat = DepthExtractor.DepthFormat.GRAYSCALE_8;
+    private boolean normalsEnabled = false;
+    private float edgeThreshold = 0.05f; // Relative depth jump that counts as an edge
+    private boolean diskOutputEnabled = true; // false = stream only, no encoded files
+    private int sampleRate = 4; // Label ray spacing in pixels
+    private Publisher publisher; // null = not streaming
+    private CaptureStatistics statistics; // Created on first capture, once registries are frozen
+    private List<FrameWriter.Output> pendingOutputs = new ArrayList<>(); // Encoded outputs of the frame being captured
+    
+    /**
+     * Receives each frame's raw buffers, before any file work.
+     * Matches {@code FrameStreamServer.publish} and {@code SharedFrameRing.publish}.
+     */
+    @FunctionalInterface
+    public interface Publisher {
+        void publish(int frameNumber, int width, int height, ByteBuffer rgb, float[] metres,
+                     boolean depthBottomUp, int[] classIds, int[] instanceIds);
+    }
+    
+    /**
+     * Depth as read for one frame. Only the arrays the enabled outputs need are filled;
+     * the pipeline derives metres from {@code raw} when it needs them.
+     */
+    public static class Depth {
+        public float[] raw;          // Non-linear [0, 1] depth buffer values (CPU path only)
+        public float[] metres;       // Metric depth, 0 = sky
+        public short[] millimetres;  // Unsigned 16-bit millimetres straight from the GPU
+        public boolean bottomUp;     // Row order of metres / millimetres
+    }
+    
+    /**
+     * One read-back frame and the camera it was rendered from.
+     */
+    public static class Frame {
+        public int number;
+        public String id;
+        public int width;
+        public int height;
+        public ByteBuffer rgb;        // RGB, 3 bytes per pixel, bottom-up rows as read by glReadPixels
+        public Depth depth;
+        public float[] clipPlanes;    // {near, far} the depth buffer was written with
+        public float nearPlane;       // Planes of the depth outputs and record
+        public float farPlane;
+        public double fovY;           // Degrees, for the intrinsics
+        public float tanHalfFovX;     // Of the projection, for normals
+        public float tanHalfFovY;
+        public Vec3d position;
+        public float yaw;
+        public float pitch;
+        public OutputPyramid.Level[] levels; // Downsampled RGB and depth, or null
+        public LabelSource labels;
+    }
+    
+    /**
+     * What one frame produced, ready for the frame writer.
+     */
+    public static class Capture {
+        public final JsonObject record;
+        public final JsonObject outputs;
+        public final List<FrameWriter.Output> files;
+        /** Statistics index entry, null when disk output is disabled. */
+        public final byte[] statistics;
+        public final SegmentationRenderer.Result segmentation;
+        /** Time spent ray casting labels. */
+        public final long labelNanos;
+        
+        Capture(JsonObject record, JsonObject outputs, List<FrameWriter.Output> files, byte[] statistics,
+                SegmentationRenderer.Result segmentation, long labelNanos) {
+            this.record = record;
+            this.outputs = outputs;
+            this.files = files;
+            this.statistics = statistics;
+            this.segmentation = segmentation;
+            this.labelNanos = labelNanos;
+        }
+    }
+    
+    /**
+     * Runs every stage for one frame.
+     */
+    public Capture process(Frame frame) throws IOException {
+        int width = frame.width;
+        int height = frame.height;
+        String frameId = frame.id;
+        
+        JsonObject outputs = new JsonObject();
+        pendingOutputs = new ArrayList<>();
+        saveRGBImage(frame.rgb, width, height, frameId, "rgb", outputs);
+        
+        Depth depth = frame.depth;
+        if (depth.metres == null && depth.millimetres == null
+                && (depthFormat != DepthExtractor.DepthFormat.GRAYSCALE_8 || normalsEnabled)) {
+            depth.metres = DepthExtractor.depthToMetres(depth.raw, frame.clipPlanes[0], frame.clipPlanes[1]);
+        }
+        float[] linearDepth = captureDepthMap(depth, width, height, frameId, frame.nearPlane, frame.farPlane, outputs);
+        
+        if (normalsEnabled && diskOutputEnabled) {
+            saveNormalsAndEdges(depth, frame.tanHalfFovX, frame.tanHalfFovY, width, height, frameId, outputs);
+        }
+        
+        long labelStart = System.nanoTime();
+        SegmentationRenderer.Result segmentation = captureSegmentationMask(frame.labels, width, height, frameId, outputs);
+        long labelNanos = System.nanoTime() - labelStart;
+        
+        // Raw buffers to local stream clients, before any file work
+        if (publisher != null) {
+            publish(frame, segmentation);
+        }
+        
+        JsonArray pyramid = null;
+        if (frame.levels != null) {
+            pyramid = savePyramidLevels(frame.levels, segmentation, width, height, frameId,
+                frame.nearPlane, frame.farPlane, frame.fovY, outputs);
+        }
+        
+        // Class and depth statistics from the buffers we already have
+        if (statistics == null) {
+            statistics = new CaptureStatistics(BlockClassMap.getClassCount());
+        }
+        statistics.beginFrame();
+        statistics.addClassMap(segmentation.classIds);
+        statistics.addLinearDepth(linearDepth);
+        byte[] statisticsEntry = statistics.endFrame(frame.number, frameId, width, height);
+        if (!diskOutputEnabled) {
+            statisticsEntry = null; // Session totals only
+        }
+        
+        // Record pose, intrinsics and outputs so loaders can seek straight to this frame
+        JsonObject record = buildManifestRecord(frame, outputs);
+        record.add("instances", instancesToJson(segmentation));
+        if (pyramid != null) {
+            record.add("pyramid", pyramid);
+        }
+        return new Capture(record, outputs, pendingOutputs, statisticsEntry, segmentation, labelNanos);
+    }
+    
+    /**
+     * === PART 1: RGB COLOR IMAGE ===
+     * Saves the framebuffer readback as a normal screenshot.
+     */
+    private void saveRGBImage(ByteBuffer buffer, int width, int height, String frameId, String suffix, JsonObject outputs) throws IOException {
+        if (!diskOutputEnabled) {
+            return;
+        }
+        // Convert to BufferedImage
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = (x + y * width) * 3;
+                int r = buffer.get(i) & 0xFF;
+                int g = buffer.get(i + 1) & 0xFF;
+                int b = buffer.get(i + 2) & 0xFF;
+                
+                // Flip vertically (OpenGL coordinates)
+                image.setRGB(x, height - 1 - y, (r << 16) | (g << 8) | b);
+            }
+        }
+        
+        // Save RGB image
+        saveImage(image, frameId, suffix, outputs);
+    }
+    
+    /**
+     * === PART 2: SEGMENTATION MASK ===
+     * Ray-casts the block type (or entity) at every sampled pixel and colors it by class.
+     * Also saves the instance mask, one ID per entity and per connected same-type block region.
+     *
+     * @return The per-pixel class and instance IDs behind the masks
+     */
+    private SegmentationRenderer.Result captureSegmentationMask(LabelSource labels, int width, int height,
+                                                                String frameId, JsonObject outputs) throws IOException {
+        SegmentationRenderer.Result segmentation = SegmentationRenderer.renderSegmentation(width, height, sampleRate, labels);
+        if (!diskOutputEnabled) {
+            // The labels still feed the stream and statistics
+            return segmentation;
+        }
+        BufferedImage segMask = SegmentationRenderer.classMapToImage(segmentation.classIds, width, height);
+        
+        // Save segmentation mask
+        saveImage(segMask, frameId, "seg", outputs);
+        
+        // Save instance mask (instance ID packed as 0xRRGGBB)
+        BufferedImage instMask = SegmentationRenderer.instanceMapToImage(segmentation.instanceIds, width, height);
+        saveImage(instMask, frameId, "inst", outputs);
+        
+        return segmentation;
+    }
+    
+    /**
+     * === PART 3: DEPTH MAP ===
+     * Extracts depth information from the depth buffer and normalizes to linear space.
+     * Near objects = black (0), far objects = white (255).
+     *
+     * @return Normalized linear depth [0, 1] for every pixel
+     */
+    private float[] captureDepthMap(Depth depth, int width, int height,
+                                    String frameId, float nearPlane, float farPlane, JsonObject outputs) throws IOException {
+        if (depthFormat != DepthExtractor.DepthFormat.GRAYSCALE_8) {
+            return saveMetricDepth(depth, width, height, frameId, nearPlane, farPlane, outputs);
+        }
+        float[] rawDepth = depth.raw;
+        
+        saveGrayscaleDepth(rawDepth, width, height, frameId, outputs);
+        
+        // Also save linearized depth for comparison
+        return saveLinearizedDepth(rawDepth, width, height, frameId, nearPlane, farPlane, outputs);
+    }
+    
+    /**
+     * Saves the gamma-enhanced 8-bit depth image ({@code _depth.png}).
+     */
+    private void saveGrayscaleDepth(float[] rawDepth, int width, int height, String frameId, JsonObject outputs) throws IOException {
+        if (!diskOutputEnabled) {
+            return;
+        }
+        // Apply contrast enhancement to make details more visible
+        float[] enhancedDepth = DepthExtractor.enhanceDepthContrast(rawDepth, 0.3f);
+        
+        // Convert to grayscale
+        byte[] grayscaleData = DepthExtractor.depthToGrayscale(enhancedDepth);
+        
+        // Create BufferedImage from grayscale data
+        BufferedImage depthImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = (x + y * width) * 3;
+                int r = grayscaleData[i] & 0xFF;
+                int g = grayscaleData[i + 1] & 0xFF;
+                int b = grayscaleData[i + 2] & 0xFF;
+                
+                // Flip vertically (OpenGL coordinates)
+                depthImage.setRGB(x, height - 1 - y, (r << 16) | (g << 8) | b);
+            }
+        }
+        
+        // Save depth map
+        saveImage(depthImage, frameId, "depth", outputs);
+    }
+    
+    /**
+     * Saves full-precision metric depth (16-bit millimetre PNG or raw float32 metres).
+     *
+     * @return Normalized linear depth [0, 1] between the given planes, for statistics
+     */
+    private float[] saveMetricDepth(Depth depth, int width, int height, String frameId,
+                                    float nearPlane, float farPlane, JsonObject outputs) throws IOException {
+        float[] metres = depth.metres;
+        saveMetricDepthFile(metres, depth.millimetres, depth.bottomUp, width, height, frameId, "depth", outputs);
+        
+        float[] normalized = new float[width * height];
+        float range = farPlane - nearPlane;
+        for (int i = 0; i < normalized.length; i++) {
+            float m = metres != null ? metres[i] : (depth.millimetres[i] & 0xFFFF) / 1000.0f;
+            // Sky (0 m) counts as far
+            normalized[i] = m == 0.0f ? 1.0f : (m - nearPlane) / range;
+        }
+        return normalized;
+    }
+    
+    /**
+     * Writes metric depth in the configured format: a 16-bit PNG, or raw float32 with a {@code .f32} extension.
+     *
+     * @param millimetres Ready-made 16-bit samples (top-down), or null to convert from {@code metres}
+     */
+    private void saveMetricDepthFile(float[] metres, short[] millimetres, boolean bottomUp, int width, int height,
+                                     String frameId, String suffix, JsonObject outputs) throws IOException {
+        if (!diskOutputEnabled) {
+            return;
+        }
+        if (depthFormat == DepthExtractor.DepthFormat.MILLIMETRES_16) {
+            BufferedImage depthImage = new BufferedImage(width, height, BufferedImage.TYPE_USHORT_GRAY);
+            short[] samples = ((DataBufferUShort) depthImage.getRaster().getDataBuffer()).getData();
+            if (millimetres == null) {
+                millimetres = DepthExtractor.metresToMillimetres16(metres, width, height, bottomUp);
+            }
+            System.arraycopy(millimetres, 0, samples, 0, samples.length);
+            saveImage(depthImage, frameId, suffix, outputs);
+        } else {
+            byte[] bytes = DepthExtractor.metresToFloat32(metres, width, height, bottomUp);
+            saveOutput(bytes, frameId + "_" + suffix + ".f32", suffix, outputs);
+        }
+    }
+    
+    /**
+     * Hands the frame's raw RGB, metric depth and labels to the publisher.
+     * Depth is converted to metres if the configured format didn't already need them.
+     */
+    private void publish(Frame frame, SegmentationRenderer.Result segmentation) {
+        Depth depth = frame.depth;
+        float[] metres = depth.metres;
+        boolean bottomUp = depth.bottomUp;
+        if (metres == null && depth.millimetres != null) {
+            metres = new float[depth.millimetres.length];
+            for (int i = 0; i < metres.length; i++) {
+                metres[i] = (depth.millimetres[i] & 0xFFFF) / 1000.0f;
+            }
+        } else if (metres == null) {
+            metres = DepthExtractor.depthToMetres(depth.raw, frame.clipPlanes[0], frame.clipPlanes[1]);
+        }
+        publisher.publish(frame.number, frame.width, frame.height, frame.rgb, metres, bottomUp,
+            segmentation.classIds, segmentation.instanceIds);
+    }
+    
+    /**
+     * === PART 4: SURFACE NORMALS AND EDGES ===
+     * Derives view-space normals and a depth-discontinuity mask from metric depth.
+     */
+    private void saveNormalsAndEdges(Depth depth, float tanHalfFovX, float tanHalfFovY, int width, int height,
+                                     String frameId, JsonObject outputs) throws IOException {
+        int[] normals = new int[width * height];
+        BufferedImage edgeImage = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] edges = ((DataBufferByte) edgeImage.getRaster().getDataBuffer()).getData();
+        
+        NormalEdgeExtractor.compute(depth.metres, depth.bottomUp, width, height, tanHalfFovX, tanHalfFovY,
+            edgeThreshold, normals, edges);
+        
+        BufferedImage normalImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        normalImage.setRGB(0, 0, width, height, normals, 0, width);
+        saveImage(normalImage, frameId, "normal", outputs);
+        saveImage(edgeImage, frameId, "edge", outputs);
+    }
+    
+    /**
+     * === PART 5: OUTPUT PYRAMID ===
+     * Saves the 1/2 and 1/4 levels of RGB, depth and segmentation. RGB and depth come from the GPU
+     * downsample; class and instance labels are mode-filtered from the full-resolution maps.
+     * Level N files use the full-resolution suffix plus {@code _lN} (e.g. {@code _rgb_l1.png}).
+     *
+     * @return Size and intrinsics of every level, starting with full resolution
+     */
+    private JsonArray savePyramidLevels(OutputPyramid.Level[] levels, SegmentationRenderer.Result segmentation,
+                                        int width, int height, String frameId, float nearPlane, float farPlane,
+                                        double fov, JsonObject outputs) throws IOException {
+        JsonArray pyramid = new JsonArray();
+        pyramid.add(pyramidLevelToJson(0, width, height, fov));
+        
+        int[] classIds = segmentation.classIds;
+        int[] instanceIds = segmentation.instanceIds;
+        int levelWidth = width;
+        int levelHeight = height;
+        for (int i = 0; i < levels.length; i++) {
+            OutputPyramid.Level level = levels[i];
+            String tag = "_l" + (i + 1);
+            
+            // Each level halves the previous one, matching the GPU blit chain
+            classIds = OutputPyramid.modeDownsample(classIds, levelWidth, levelHeight);
+            instanceIds = OutputPyramid.modeDownsample(instanceIds, levelWidth, levelHeight);
+            levelWidth = level.width;
+            levelHeight = level.height;
+            
+            saveRGBImage(level.rgb, levelWidth, levelHeight, frameId, "rgb" + tag, outputs);
+            saveDepthLevel(level.rawDepth, levelWidth, levelHeight, frameId, "depth" + tag, nearPlane, farPlane, outputs);
+            saveImage(SegmentationRenderer.classMapToImage(classIds, levelWidth, levelHeight), frameId, "seg" + tag, outputs);
+            saveImage(SegmentationRenderer.instanceMapToImage(instanceIds, levelWidth, levelHeight), frameId, "inst" + tag, outputs);
+            pyramid.add(pyramidLevelToJson(i + 1, levelWidth, levelHeight, fov));
+        }
+        return pyramid;
+    }
+    
+    /**
+     * Saves one pyramid level of depth in the configured format. The 8-bit format
+     * gets the same contrast curve as the full-resolution {@code _depth.png}.
+     */
+    private void saveDepthLevel(float[] rawDepth, int width, int height, String frameId, String suffix,
+                                float nearPlane, float farPlane, JsonObject outputs) throws IOException {
+        if (depthFormat != DepthExtractor.DepthFormat.GRAYSCALE_8) {
+            float[] metres = DepthExtractor.depthToMetres(rawDepth, nearPlane, farPlane);
+            saveMetricDepthFile(metres, null, true, width, height, frameId, suffix, outputs);
+            return;
+        }
+        
+        byte[] grayscaleData = DepthExtractor.depthToGrayscale(DepthExtractor.enhanceDepthContrast(rawDepth, 0.3f));
+        BufferedImage depthImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int v = grayscaleData[(x + y * width) * 3] & 0xFF;
+                depthImage.setRGB(x, height - 1 - y, (v << 16) | (v << 8) | v);
+            }
+        }
+        saveImage(depthImage, frameId, suffix, outputs);
+    }
+    
+    /**
+     * Size and pinhole intrinsics of one pyramid level, using the same model as the frame record.
+     */
+    private static JsonObject pyramidLevelToJson(int level, int width, int height, double fov) {
+        double focal = (height / 2.0) / Math.tan(Math.toRadians(fov / 2.0));
+        JsonObject json = new JsonObject();
+        json.addProperty("level", level);
+        json.addProperty("width", width);
+        json.addProperty("height", height);
+        json.addProperty("fx", focal);
+        json.addProperty("fy", focal);
+        json.addProperty("cx", width / 2.0);
+        json.addProperty("cy", height / 2.0);
+        return json;
+    }
+    
+    /**
+     * Helper method to save linearized depth for debugging.
+     *
+     * @param rawDepth The frame's raw depth buffer, already read back
+     * @return The linear depth that was saved
+     */
+    private float[] saveLinearizedDepth(float[] rawDepth, int width, int height,
+                                        String frameId, float nearPlane, float farPlane, JsonObject outputs) throws IOException {
+        float[] linearDepth = DepthExtractor.linearizeDepth(rawDepth, nearPlane, farPlane);
+        if (!diskOutputEnabled) {
+            // Statistics still need the linear depth
+            return linearDepth;
+        }
+        byte[] linearGrayscale = DepthExtractor.depthToGrayscale(linearDepth);
+        
+        BufferedImage linearImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = (x + y * width) * 3;
+                int r = linearGrayscale[i] & 0xFF;
+                int g = linearGrayscale[i + 1] & 0xFF;
+                int b = linearGrayscale[i + 2] & 0xFF;
+                linearImage.setRGB(x, height - 1 - y, (r << 16) | (g << 8) | b);
+            }
+        }
+        
+        saveImage(linearImage, frameId, "depth_linear", outputs);
+        
+        return linearDepth;
+    }
+    
+    /**
+     * PNG-encodes an image in memory, writes it, and records its size and CRC32 under {@code outputs}.
+     */
+    private void saveImage(BufferedImage image, String frameId, String suffix, JsonObject outputs) throws IOException {
+        if (!diskOutputEnabled) {
+            return;
+        }
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        ImageIO.write(image, "PNG", encoded);
+        saveOutput(encoded.toByteArray(), frameId + "_" + suffix + ".png", suffix, outputs);
+    }
+    
+    /**
+     * Queues an encoded output for the frame writer, which records its file, offset, size and
+     * CRC32 under {@code outputs.key} once it is written.
+     */
+    private void saveOutput(byte[] bytes, String fileName, String key, JsonObject outputs) throws IOException {
+        if (!diskOutputEnabled) {
+            return;
+        }
+        pendingOutputs.add(new FrameWriter.Output(key, fileName, bytes));
+    }
+    
+    /**
+     * Builds the frame manifest record: identity, camera pose, intrinsics, depth range and outputs.
+     * Intrinsics follow the same vertical-FOV pinhole model that SegmentationRenderer uses for its rays.
+     */
+    private JsonObject buildManifestRecord(Frame frame, JsonObject outputs) {
+        JsonObject record = new JsonObject();
+        record.addProperty("frame", frame.number);
+        record.addProperty("frame_id", frame.id);
+        record.addProperty("time", System.currentTimeMillis());
+        
+        JsonObject pose = new JsonObject();
+        pose.addProperty("x", frame.position.x);
+        pose.addProperty("y", frame.position.y);
+        pose.addProperty("z", frame.position.z);
+        pose.addProperty("yaw", frame.yaw);
+        pose.addProperty("pitch", frame.pitch);
+        record.add("pose", pose);
+        
+        int width = frame.width;
+        int height = frame.height;
+        double focal = (height / 2.0) / Math.tan(Math.toRadians(frame.fovY / 2.0));
+        JsonObject intrinsics = new JsonObject();
+        intrinsics.addProperty("width", width);
+        intrinsics.addProperty("height", height);
+        intrinsics.addProperty("fov_y", frame.fovY);
+        intrinsics.addProperty("fx", focal);
+        intrinsics.addProperty("fy", focal);
+        intrinsics.addProperty("cx", width / 2.0);
+        intrinsics.addProperty("cy", height / 2.0);
+        record.add("intrinsics", intrinsics);
+        
+        JsonObject depth = new JsonObject();
+        depth.addProperty("format", depthFormat.name());
+        depth.addProperty("near", frame.nearPlane);
+        depth.addProperty("far", frame.farPlane);
+        record.add("depth", depth);
+        
+        record.add("outputs", outputs);
+        return record;
+    }
+    
+    /**
+     * Describes the frame's instances: the total count and the entity behind each entity instance.
+     * Block region instances follow the entities and take their class from the segmentation mask.
+     */
+    private static JsonObject instancesToJson(SegmentationRenderer.Result segmentation) {
+        JsonObject json = new JsonObject();
+        json.addProperty("count", segmentation.instanceCount);
+        
+        JsonArray entities = new JsonArray();
+        for (EntityGrid.Entry entry : segmentation.entities) {
+            JsonObject entity = new JsonObject();
+            entity.addProperty("instance", entry.instanceId);
+            entity.addProperty("class", entry.classId);
+            entity.addProperty("type", BlockClassMap.getClassName(entry.classId));
+            entity.addProperty("uuid", entry.entity.getUuidAsString());
+            entities.add(entity);
+        }
+        json.add("entities", entities);
+        return json;
+    }
+    
+    /**
+     * Class and depth totals of every frame processed so far, or null before the first.
+     */
+    public CaptureStatistics getStatistics() {
+        return statistics;
+    }
+    
+    public DepthExtractor.DepthFormat getDepthFormat() {
+        return depthFormat;
+    }
+    
+    public boolean isNormalsEnabled() {
+        return normalsEnabled;
+    }
+    
+    public boolean isDiskOutputEnabled() {
+        return diskOutputEnabled;
+    }
+    
+    /**
+     * Sets how depth is saved. Metric formats use the frame's clip planes.
+     */
+    public void setDepthFormat(DepthExtractor.DepthFormat format) {
+        depthFormat = format;
+    }
+    
+    /**
+     * Enables the surface normal ({@code _normal.png}) and depth edge ({@code _edge.png}) outputs.
+     *
+     * @param enabled Whether to write normals and edges
+     * @param threshold Relative depth jump (fraction of depth) that marks an edge
+     */
+    public void setNormalsEnabled(boolean enabled, float threshold) {
+        normalsEnabled = enabled;
+        edgeThreshold = Math.max(0.0f, threshold);
+    }
+    
+    /**
+     * Enables or disables building and encoding output files. With it disabled, only the
+     * publisher, statistics and the record get the frame.
+     */
+    public void setDiskOutputEnabled(boolean enabled) {
+        diskOutputEnabled = enabled;
+    }
+    
+    /**
+     * Sets the label ray spacing in pixels (1 = every pixel).
+     */
+    public void setSampleRate(int pixels) {
+        sampleRate = Math.max(1, pixels);
+    }
+    
+    /**
+     * Sets where raw frame buffers are published, or null to publish nowhere.
+     */
+    public void setPublisher(Publisher publisher) {
+        this.publisher = publisher;
+    }
+}
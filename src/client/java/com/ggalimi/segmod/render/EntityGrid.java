@@ -0,0 +1,222 @@
+package com.ggalimi.segmod.render;
+
+import com.ggalimi.segmod.util.BlockClassMap;
+import net.minecraft.entity.Entity;
+import net.minecraft.util.math.Box;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.util.math.Vec3d;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Per-frame uniform grid over the bounding boxes of entities in view.
+ *
+ * Built once per capture, then each segmentation ray walks only the grid
+ * cells it passes through (3D DDA) and tests only the entities in those
+ * cells, so cost scales with the entities near the ray rather than the total
+ * entity count. Each entity gets a frame-local instance ID starting at 1.
+ */
+public class EntityGrid {
+    
+    // Cell edge length in blocks
+    private static final double CELL_SIZE = 4.0;
+    // Slack added to the view cone so boxes partially in view are kept
+    private static final double CONE_MARGIN = 0.2;
+    
+    /**
+     * One entity in the grid.
+     */
+    public static class Entry {
+        public final Entity entity;
+        public final Box box;
+        public final int classId;
+        public final int instanceId;
+        private int lastRay = -1;
+        
+        Entry(Entity entity, int instanceId) {
+            this.entity = entity;
+            this.box = entity.getBoundingBox();
+            this.classId = BlockClassMap.getEntityClassId(entity.getType());
+            this.instanceId = instanceId;
+        }
+    }
+    
+    private final Map<Long, List<Entry>> cells = new HashMap<>();
+    private final List<Entry> entries = new ArrayList<>();
+    private Box bounds = null;
+    private int rayCounter = 0;
+    
+    // Result of the last raycast
+    private Entry hitEntry;
+    private double hitDistance;
+    
+    /**
+     * Builds the grid from the entities within {@code maxDistance} of the camera
+     * and inside a cone around the view direction.
+     *
+     * @param entities All entities in the world
+     * @param exclude Entity to skip (the camera entity)
+     * @param cameraPos Camera position
+     * @param forward Normalized view direction
+     * @param halfFovDiagonal Half of the diagonal field of view, in radians
+     * @param maxDistance Max ray length in blocks
+     */
+    public EntityGrid(Iterable<Entity> entities, Entity exclude, Vec3d cameraPos, Vec3d forward,
+                      double halfFovDiagonal, double maxDistance) {
+        double cosLimit = Math.cos(Math.min(Math.PI, halfFovDiagonal + CONE_MARGIN));
+        
+        for (Entity entity : entities) {
+            if (entity == exclude || entity.isInvisible()) {
+                continue;
+            }
+            Box box = entity.getBoundingBox();
+            Vec3d toCenter = box.getCenter().subtract(cameraPos);
+            double distance = toCenter.length();
+            double radius = box.getAverageSideLength();
+            if (distance - radius > maxDistance) {
+                continue;
+            }
+            // Cheap frustum test: keep if the center is in the view cone or the box is close
+            if (distance > radius && toCenter.dotProduct(forward) < cosLimit * distance - radius) {
+                continue;
+            }
+            
+            Entry entry = new Entry(entity, entries.size() + 1);
+            entries.add(entry);
+            bounds = bounds == null ? box : bounds.union(box);
+            
+            int minX = cell(box.minX), maxX = cell(box.maxX);
+            int minY = cell(box.minY), maxY = cell(box.maxY);
+            int minZ = cell(box.minZ), maxZ = cell(box.maxZ);
+            for (int x = minX; x <= maxX; x++) {
+                for (int y = minY; y <= maxY; y++) {
+                    for (int z = minZ; z <= maxZ; z++) {
+                        cells.computeIfAbsent(key(x, y, z), k -> new ArrayList<>()).add(entry);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Finds the nearest entity hit along a ray, up to {@code maxDistance}.
+     *
+     * @param origin Ray origin
+     * @param dir Normalized ray direction
+     * @param maxDistance Distance to the first block hit (or the max ray length)
+     * @return true if an entity was hit; see {@link #getHitEntry()} and {@link #getHitDistance()}
+     */
+    public boolean raycast(Vec3d origin, Vec3d dir, double maxDistance) {
+        hitEntry = null;
+        hitDistance = maxDistance;
+        if (bounds == null) {
+            return false;
+        }
+        
+        // Clip the ray to the bounds of all entities; most rays end here
+        Vec3d end = origin.add(dir.multiply(maxDistance));
+        double tStart = 0.0;
+        if (!bounds.contains(origin)) {
+            Optional<Vec3d> enter = bounds.raycast(origin, end);
+            if (enter.isEmpty()) {
+                return false;
+            }
+            tStart = enter.get().distanceTo(origin);
+        }
+        double tEnd = maxDistance;
+        if (!bounds.contains(end)) {
+            // Casting backwards finds where the ray leaves the bounds
+            tEnd = bounds.raycast(end, origin).map(exit -> exit.distanceTo(origin)).orElse(tStart);
+        }
+        
+        int ray = rayCounter++;
+        
+        // 3D DDA through the grid cells, starting where the ray enters the bounds
+        Vec3d start = origin.add(dir.multiply(tStart));
+        int cx = cell(start.x), cy = cell(start.y), cz = cell(start.z);
+        int stepX = dir.x > 0 ? 1 : -1;
+        int stepY = dir.y > 0 ? 1 : -1;
+        int stepZ = dir.z > 0 ? 1 : -1;
+        double tDeltaX = dir.x != 0 ? CELL_SIZE / Math.abs(dir.x) : Double.POSITIVE_INFINITY;
+        double tDeltaY = dir.y != 0 ? CELL_SIZE / Math.abs(dir.y) : Double.POSITIVE_INFINITY;
+        double tDeltaZ = dir.z != 0 ? CELL_SIZE / Math.abs(dir.z) : Double.POSITIVE_INFINITY;
+        double tMaxX = tStart + boundaryDistance(start.x, dir.x, cx);
+        double tMaxY = tStart + boundaryDistance(start.y, dir.y, cy);
+        double tMaxZ = tStart + boundaryDistance(start.z, dir.z, cz);
+        
+        double t = tStart;
+        while (t <= Math.min(hitDistance, tEnd)) {
+            List<Entry> cellEntries = cells.get(key(cx, cy, cz));
+            if (cellEntries != null) {
+                for (Entry e : cellEntries) {
+                    if (e.lastRay == ray) {
+                        continue; // Already tested from another cell
+                    }
+                    e.lastRay = ray;
+                    Optional<Vec3d> hit = e.box.raycast(origin, end);
+                    if (hit.isPresent()) {
+                        double d = hit.get().distanceTo(origin);
+                        if (d < hitDistance) {
+                            hitDistance = d;
+                            hitEntry = e;
+                        }
+                    }
+                }
+            }
+            
+            // Advance to the next cell along the ray
+            if (tMaxX < tMaxY && tMaxX < tMaxZ) {
+                t = tMaxX;
+                tMaxX += tDeltaX;
+                cx += stepX;
+            } else if (tMaxY < tMaxZ) {
+                t = tMaxY;
+                tMaxY += tDeltaY;
+                cy += stepY;
+            } else {
+                t = tMaxZ;
+                tMaxZ += tDeltaZ;
+                cz += stepZ;
+            }
+        }
+        
+        return hitEntry != null;
+    }
+    
+    public Entry getHitEntry() {
+        return hitEntry;
+    }
+    
+    public double getHitDistance() {
+        return hitDistance;
+    }
+    
+    /**
+     * Entities in the grid, indexed by instance ID - 1.
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+    
+    private static int cell(double coord) {
+        return MathHelper.floor(coord / CELL_SIZE);
+    }
+    
+    private static double boundaryDistance(double pos, double dir, int cell) {
+        if (dir > 0) {
+            return ((cell + 1) * CELL_SIZE - pos) / dir;
+        }
+        if (dir < 0) {
+            return (cell * CELL_SIZE - pos) / dir;
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+    
+    private static long key(int x, int y, int z) {
+        return ((long) (x & 0x1FFFFF) << 42) | ((long) (y & 0x1FFFFF) << 21) | (z & 0x1FFFFF);
+    }
+}
@@ -1,13 +1,27 @@
 package com.ggalimi.segmod.render;
 
+import com.ggalimi.segmod.ipc.FrameStreamServer;
+import com.ggalimi.segmod.util.BlockClassMap;
+import com.ggalimi.segmod.util.CaptureStatistics;
 import com.ggalimi.segmod.util.DepthExtractor;
+import com.ggalimi.segmod.util.FrameManifest;
+import com.ggalimi.segmod.util.FrameWriter;
+import com.ggalimi.segmod.util.RunManifest;
+import com.ggalimi.segmod.voxel.VoxelExporter;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
 import com.mojang.blaze3d.systems.RenderSystem;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.gl.Framebuffer;
+import net.minecraft.client.render.Camera;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.server.integrated.IntegratedServer;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import org.joml.Matrix4f;
 import org.lwjgl.opengl.GL11;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -25,12 +39,31 @@ public class FrameCapture {
     private static final MinecraftClient client = MinecraftClient.getInstance();
     private static int frameCounter = 0;
     private static File outputDirectory;
+    private static RunManifest runManifest;
+    private static File statisticsIndexFile;
+    private static CapturePipeline pipeline; // Post-readback stages, shared with the soak test
+    private static FrameManifest frameManifest;
+    private static FrameWriter frameWriter;
     
     // Capture settings
     private static boolean autoCapture = false;
     private static int captureInterval = 20; // Capture every 20 ticks (1 second at 20 TPS)
     private static int tickCounter = 0;
     private static boolean captureRequested = false;
+    private static boolean manualCapture = false; // Manual captures bypass dedup
+    private static boolean offscreenManual = false; // manualCapture of the offscreen render in progress
+    private static int rigGroup = 0; // Frame number of the first view of the current camera rig capture
+    private static net.minecraft.client.world.ClientWorld lastWorld; // Dedup reference is dropped when this changes
+    private static boolean gpuDepthLinearization = false; // Metric formats only
+    private static boolean pyramidEnabled = false; // Also save 1/2 and 1/4 resolution levels
+    private static int voxelExportRadius = 0; // Chunks around each capture to export as voxels, 0 = off
+    private static boolean voxelServerWarned = false; // Missing integrated server is reported once per world
+    private static boolean fabulousWarned = false; // Refused offscreen captures are reported once per Fabulous session
+    private static FrameWriter.Layout outputLayout = FrameWriter.Layout.FILES;
+    private static FrameWriter.SyncPolicy syncPolicy = FrameWriter.SyncPolicy.EVERY_N;
+    private static int syncInterval = 30; // Frames between fsyncs for EVERY_N
+    private static boolean directIo = false; // PACKED layout only
+    private static long segmentBytes = 1L << 30; // Size PACKED segment files are created with
     
     static {
         // Initialize output directory
@@ -39,6 +72,9 @@ public class FrameCapture {
         if (!outputDirectory.exists()) {
             outputDirectory.mkdirs();
         }
+        runManifest = new RunManifest(outputDirectory);
+        statisticsIndexFile = new File(outputDirectory, "run_" + runManifest.getRunId() + "_stats.bin");
+        pipeline = new CapturePipeline();
     }
     
     /**
@@ -46,6 +82,7 @@ public class FrameCapture {
      */
     public static void requestCapture() {
         captureRequested = true;
+        manualCapture = true;
     }
     
     /**
@@ -53,6 +90,7 @@ public class FrameCapture {
      */
     public static void setAutoCapture(boolean enabled) {
         autoCapture = enabled;
+        FrameDeduplicator.reset();
         if (enabled) {
             client.inGameHud.getChatHud().addMessage(
                 net.minecraft.text.Text.literal("§a[SegMod] Auto-capture enabled (every " + captureInterval + " ticks)")
@@ -75,11 +113,56 @@ public class FrameCapture {
      * Called every tick to handle automatic capture timing.
      */
     public static void tick() {
+        // Dimension changes swap the client world without a reconnect
+        if (client.world != lastWorld) {
+            lastWorld = client.world;
+            FrameDeduplicator.reset();
+            voxelServerWarned = false;
+        }
+        
         if (autoCapture && client.world != null && client.player != null) {
             tickCounter++;
             if (tickCounter >= captureInterval) {
                 tickCounter = 0;
-                requestCapture();
+                captureRequested = true;
+            }
+        }
+    }
+    
+    /**
+     * Called from the render pass, just before the window's world render. Offscreen captures
+     * render their own world frame(s) here instead of waiting for the window's.
+     *
+     * Offscreen captures are refused with Fabulous graphics: the world renderer's transparency
+     * post-processor stays bound to the window framebuffer, so the translucent, particle and
+     * weather layers would be drawn into the window and be missing from the capture.
+     */
+    public static void onBeforeWorldRender() {
+        if (!MinecraftClient.isFabulousGraphicsOrBetter()) {
+            fabulousWarned = false;
+        }
+        if (captureRequested && OffscreenCaptureTarget.isEnabled() && client.world != null && client.player != null) {
+            offscreenManual = manualCapture;
+            rigGroup = frameCounter;
+            captureRequested = false;
+            manualCapture = false;
+            if (MinecraftClient.isFabulousGraphicsOrBetter()) {
+                // Manual captures always say why nothing was saved; automatic ones only once
+                if (offscreenManual || !fabulousWarned) {
+                    fabulousWarned = true;
+                    client.inGameHud.getChatHud().addMessage(
+                        net.minecraft.text.Text.literal("§c[SegMod] Offscreen capture is unavailable with Fabulous graphics; switch to Fancy or Fast")
+                    );
+                }
+                return;
+            }
+            try {
+                OffscreenCaptureTarget.render();
+            } catch (Exception e) {
+                e.printStackTrace();
+                client.inGameHud.getChatHud().addMessage(
+                    net.minecraft.text.Text.literal("§c[SegMod] Offscreen render failed: " + e.getMessage())
+                );
             }
         }
     }
@@ -88,181 +171,313 @@ public class FrameCapture {
      * Called after world entities are rendered (before HUD).
      */
     public static void onWorldRendered(net.fabricmc.fabric.api.client.rendering.v1.WorldRenderContext context) {
+        // With an offscreen target, only its render(s) are captured, never the window
+        if (OffscreenCaptureTarget.isEnabled()) {
+            if (OffscreenCaptureTarget.isRendering()) {
+                // A rig is deduplicated once, on its first view (its views never match each other);
+                // if that view is a duplicate, the whole rig is
+                int viewIndex = OffscreenCaptureTarget.getActiveViewIndex();
+                boolean captured = captureFrame(offscreenManual || viewIndex > 0, context.projectionMatrix());
+                if (!captured && viewIndex == 0) {
+                    OffscreenCaptureTarget.skipRemainingViews();
+                }
+            }
+            return;
+        }
         if (!captureRequested) {
             return;
         }
+        boolean manual = manualCapture;
         captureRequested = false;
-        captureFrame();
+        manualCapture = false;
+        captureFrame(manual, context.projectionMatrix());
     }
     
     /**
      * Main method to capture all three outputs: RGB, segmentation mask, and depth map.
+     * 
+     * @param manual true for user-requested captures, which are never dropped as duplicates
+     * @param projection The projection matrix the world was rendered with
+     * @return false if the frame was dropped as a near-duplicate
      */
-    private static void captureFrame() {
+    private static boolean captureFrame(boolean manual, Matrix4f projection) {
         if (client.world == null || client.player == null) {
-            return;
+            return true;
         }
         
         try {
-            // We're called after world render but before HUD, so framebuffer has world-only content
+            // We're called after world render but before HUD, so framebuffer has world-only content.
+            // During an offscreen render this is the offscreen target, at the capture resolution.
             Framebuffer mainFramebuffer = client.getFramebuffer();
             int width = mainFramebuffer.textureWidth;
             int height = mainFramebuffer.textureHeight;
             
             String timestamp = new SimpleDateFormat("yyyy-MM-dd_HH.mm.ss").format(new Date());
             String frameId = String.format("%s_frame%04d", timestamp, frameCounter);
+            CameraRig.View view = OffscreenCaptureTarget.getActiveView();
+            if (view != null) {
+                frameId += "_" + view.name;
+            }
             
             // === 1. CAPTURE RGB COLOR IMAGE (world-only, no HUD) ===
-            captureRGBImage(mainFramebuffer, width, height, frameId);
+            ByteBuffer rgbBuffer = readFramebufferPixels(mainFramebuffer, width, height);
+            
+            // Drop near-duplicates before doing any expensive work
+            Camera camera = client.gameRenderer.getCamera();
+            if (!manual && FrameDeduplicator.isDuplicate(rgbBuffer, width, height, camera.getPos(), camera.getYaw(), camera.getPitch())) {
+                writeRunManifest();
+                return false;
+            }
+            
+            // The planes the depth buffer was actually written with; metric outputs need these
+            float[] clipPlanes = DepthExtractor.getClipPlanes(projection);
             
-            // === 3. CAPTURE DEPTH MAP ===
-            captureDepthMap(mainFramebuffer, width, height, frameId);
+            CapturePipeline.Frame frame = new CapturePipeline.Frame();
+            frame.number = frameCounter;
+            frame.id = frameId;
+            frame.width = width;
+            frame.height = height;
+            frame.rgb = rgbBuffer;
+            frame.clipPlanes = clipPlanes;
+            if (pipeline.getDepthFormat() == DepthExtractor.DepthFormat.GRAYSCALE_8) {
+                frame.nearPlane = 0.05f; // Minecraft's near plane
+                frame.farPlane = client.options.getViewDistance().getValue() * 16.0f; // Render distance in blocks
+            } else {
+                frame.nearPlane = clipPlanes[0];
+                frame.farPlane = clipPlanes[1];
+            }
+            frame.fovY = OffscreenCaptureTarget.getFov();
+            frame.tanHalfFovX = 1.0f / projection.m00();
+            frame.tanHalfFovY = 1.0f / projection.m11();
+            frame.position = camera.getPos();
+            frame.yaw = camera.getYaw();
+            frame.pitch = camera.getPitch();
+            
+            // === 2. READ DEPTH once; every depth-derived output shares it ===
+            frame.depth = readDepth(mainFramebuffer, clipPlanes, width, height);
+            
+            // === 3. DOWNSAMPLED LEVELS (optional, files only), read back while the frame is still on the GPU ===
+            if (pyramidEnabled && pipeline.isDiskOutputEnabled()) {
+                frame.levels = OutputPyramid.downsample(mainFramebuffer, width, height);
+            }
+            
+            // === 4. ENCODING, LABELS, STREAM AND STATISTICS, against the client world ===
+            frame.labels = SegmentationRenderer.createLabelSource(width, height);
+            pipeline.setPublisher(FrameStreamServer.isRunning() ? FrameStreamServer::publish : null);
+            CapturePipeline.Capture capture = pipeline.process(frame);
             
-            // === 2. CAPTURE SEGMENTATION MASK ===
-            captureSegmentationMask(width, height, frameId);
+            JsonObject record = capture.record;
+            record.addProperty("world_time", client.world.getTime());
+            if (view != null) {
+                record.add("view", viewToJson(view));
+            }
+            if (voxelExportRadius > 0) {
+                JsonObject voxels = requestVoxelExport(frameId, camera);
+                if (voxels != null) {
+                    record.add("voxels", voxels);
+                }
+            }
+            // Outputs are written, and the record appended, on the writer thread
+            getFrameWriter().submit(record, capture.outputs, capture.files, capture.statistics);
             
             frameCounter++;
+            writeRunManifest();
             
             // Notify user
             client.inGameHud.getChatHud().addMessage(
                 net.minecraft.text.Text.literal("§b[SegMod] Captured frame " + frameCounter + " → " + frameId)
             );
-            
+        
         } catch (Exception e) {
             e.printStackTrace();
             client.inGameHud.getChatHud().addMessage(
                 net.minecraft.text.Text.literal("§c[SegMod] Error capturing frame: " + e.getMessage())
             );
         }
+        return true;
     }
     
     /**
-     * === PART 1: RGB COLOR IMAGE ===
-     * Captures the current screen as a normal screenshot.
+     * Reads depth for the enabled outputs. With GPU linearization and a metric format, the
+     * depth buffer is linearized and flipped on the GPU and only the final R32F / R16 target is
+     * read back; otherwise the raw depth buffer is read, and the pipeline linearizes it on the CPU.
+     * 
+     * @param clipPlanes {near, far} the depth buffer was written with
      */
-    private static void captureRGBImage(Framebuffer framebuffer, int width, int height, String frameId) throws IOException {
-        // Read pixels from the main framebuffer
-        ByteBuffer buffer = readFramebufferPixels(framebuffer, width, height);
+    private static CapturePipeline.Depth readDepth(Framebuffer framebuffer, float[] clipPlanes, int width, int height) {
+        float nearPlane = clipPlanes[0];
+        float farPlane = clipPlanes[1];
+        CapturePipeline.Depth depth = new CapturePipeline.Depth();
+        DepthExtractor.DepthFormat depthFormat = pipeline.getDepthFormat();
         
-        // Convert to BufferedImage
-        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int i = (x + y * width) * 3;
-                int r = buffer.get(i) & 0xFF;
-                int g = buffer.get(i + 1) & 0xFF;
-                int b = buffer.get(i + 2) & 0xFF;
-                
-                // Flip vertically (OpenGL coordinates)
-                image.setRGB(x, height - 1 - y, (r << 16) | (g << 8) | b);
+        if (gpuDepthLinearization && depthFormat != DepthExtractor.DepthFormat.GRAYSCALE_8) {
+            depth.bottomUp = false;
+            if (depthFormat == DepthExtractor.DepthFormat.MILLIMETRES_16 && !pipeline.isNormalsEnabled()) {
+                // Half the readback of R32F, and no CPU conversion at all
+                depth.millimetres = GpuDepthLinearizer.readMillimetres(framebuffer, width, height, nearPlane, farPlane);
+            } else {
+                depth.metres = GpuDepthLinearizer.readMetres(framebuffer, width, height, nearPlane, farPlane);
             }
+            return depth;
         }
         
-        // Save RGB image
-        File outputFile = new File(outputDirectory, frameId + "_rgb.png");
-        ImageIO.write(image, "PNG", outputFile);
+        depth.bottomUp = true;
+        depth.raw = DepthExtractor.extractRawDepth(framebuffer, width, height);
+        return depth;
     }
     
     /**
-     * === PART 2: SEGMENTATION MASK ===
-     * Renders the scene with each block type colored by its unique deterministic color.
-     * Uses ray-casting to determine the block type at each pixel and colors it accordingly.
+     * Asks the integrated server to export the semantic voxel volume around the camera.
+     * The export runs asynchronously on the server, so the file appears shortly after the frame.
+     * 
+     * @return The manifest entry for the export, or null when there is no integrated server
      */
-    private static void captureSegmentationMask(int width, int height, String frameId) throws IOException {
-        // Use SegmentationRenderer to create the mask
-        // Using fast mode with 4x4 sampling for better performance
-        // For highest quality, use renderSegmentationMask(width, height) instead
-        BufferedImage segMask = SegmentationRenderer.renderSegmentationMaskFast(width, height, 4);
+    private static JsonObject requestVoxelExport(String frameId, Camera camera) {
+        IntegratedServer server = client.getServer();
+        if (server == null) {
+            if (!voxelServerWarned) {
+                voxelServerWarned = true;
+                client.inGameHud.getChatHud().addMessage(
+                    net.minecraft.text.Text.literal("§c[SegMod] Voxel export needs a singleplayer world (integrated server)")
+                );
+            }
+            return null;
+        }
+        RegistryKey<World> dimension = client.world.getRegistryKey();
+        BlockPos center = BlockPos.ofFloored(camera.getPos());
+        String fileName = frameId + "_voxels.bin";
+        File file = new File(outputDirectory, fileName);
+        int radius = voxelExportRadius;
+        
+        server.execute(() -> {
+            ServerWorld world = server.getWorld(dimension);
+            if (world == null) {
+                return;
+            }
+            VoxelExporter.export(world, center, radius, file);
+        });
         
-        // Save segmentation mask
-        File outputFile = new File(outputDirectory, frameId + "_seg.png");
-        ImageIO.write(segMask, "PNG", outputFile);
+        JsonObject voxels = new JsonObject();
+        voxels.addProperty("file", fileName);
+        voxels.addProperty("radius_chunks", radius);
+        voxels.addProperty("center_x", center.getX());
+        voxels.addProperty("center_y", center.getY());
+        voxels.addProperty("center_z", center.getZ());
+        return voxels;
     }
     
     /**
-     * === PART 3: DEPTH MAP ===
-     * Extracts depth information from the depth buffer and normalizes to linear space.
-     * Near objects = black (0), far objects = white (255).
+     * Identifies a camera rig view. Views captured together share {@code group}, the frame number of the first view.
      */
-    private static void captureDepthMap(Framebuffer framebuffer, int width, int height, String frameId) throws IOException {
-        // Get camera parameters
-        float nearPlane = 0.05f; // Minecraft's near plane
-        float farPlane = client.options.getViewDistance().getValue() * 16.0f; // Render distance in blocks
-        
-        // Read depth buffer directly
-        float[] rawDepth = DepthExtractor.extractRawDepth(framebuffer, width, height);
-        
-        // Debug: Check raw depth statistics
-        float minDepth = Float.MAX_VALUE;
-        float maxDepth = Float.MIN_VALUE;
-        int whitePixels = 0;
-        int blackPixels = 0;
-        int midPixels = 0;
-        for (float d : rawDepth) {
-            if (d < minDepth) minDepth = d;
-            if (d > maxDepth) maxDepth = d;
-            if (d > 0.999f) whitePixels++;
-            else if (d < 0.001f) blackPixels++;
-            else midPixels++;
+    private static JsonObject viewToJson(CameraRig.View view) {
+        JsonObject json = new JsonObject();
+        json.addProperty("name", view.name);
+        json.addProperty("index", OffscreenCaptureTarget.getActiveViewIndex());
+        json.addProperty("group", rigGroup);
+        json.addProperty("right", view.right);
+        json.addProperty("up", view.up);
+        json.addProperty("forward", view.forward);
+        json.addProperty("yaw", view.yaw);
+        json.addProperty("pitch", view.pitch);
+        json.addProperty("world_aligned", view.worldAligned);
+        return json;
+    }
+    
+    /**
+     * Opens the per-run frame manifest on first use.
+     */
+    private static FrameManifest getFrameManifest() throws IOException {
+        if (frameManifest == null) {
+            frameManifest = new FrameManifest(outputDirectory, "run_" + runManifest.getRunId() + "_frames", false);
         }
-        System.out.println("[SegMod Depth] Min: " + minDepth + ", Max: " + maxDepth + 
-                         ", White: " + whitePixels + ", Black: " + blackPixels + 
-                         ", Mid: " + midPixels + "/" + rawDepth.length);
-        
-        if (midPixels > 0) {
-            System.out.println("[SegMod] Depth data available: " + midPixels + " pixels with valid depth");
+        return frameManifest;
+    }
+    
+    /**
+     * Starts the frame writer on first use. The manifest is synced by the writer, per its sync policy.
+     */
+    private static FrameWriter getFrameWriter() throws IOException {
+        if (frameWriter == null) {
+            String prefix = "run_" + runManifest.getRunId() + "_data";
+            frameWriter = new FrameWriter(outputDirectory, prefix, getFrameManifest(), outputLayout,
+                syncPolicy, syncInterval, directIo, segmentBytes, statisticsIndexFile);
         }
-        
-        // Apply contrast enhancement to make details more visible
-        float[] enhancedDepth = DepthExtractor.enhanceDepthContrast(rawDepth, 0.3f);
-        
-        // Convert to grayscale
-        byte[] grayscaleData = DepthExtractor.depthToGrayscale(enhancedDepth);
-        
-        // Create BufferedImage from grayscale data
-        BufferedImage depthImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int i = (x + y * width) * 3;
-                int r = grayscaleData[i] & 0xFF;
-                int g = grayscaleData[i + 1] & 0xFF;
-                int b = grayscaleData[i + 2] & 0xFF;
-                
-                // Flip vertically (OpenGL coordinates)
-                depthImage.setRGB(x, height - 1 - y, (r << 16) | (g << 8) | b);
+        return frameWriter;
+    }
+    
+    /**
+     * Drains and closes the frame writer and the frame manifest, syncing everything written.
+     * The next capture reopens them with the current settings.
+     */
+    public static void shutdown() {
+        try {
+            if (frameWriter != null) {
+                frameWriter.close();
+                runManifest.setSection("writer", frameWriter.getStats());
+                runManifest.write();
+            }
+            if (frameManifest != null) {
+                frameManifest.close();
             }
+        } catch (IOException e) {
+            System.out.println("[SegMod] Failed to close frame output: " + e.getMessage());
         }
+        frameWriter = null;
+        frameManifest = null;
+    }
+    
+    /**
+     * Rewrites the run manifest with the current capture and dedup counters.
+     */
+    private static void writeRunManifest() throws IOException {
+        JsonObject dedup = new JsonObject();
+        dedup.addProperty("enabled", FrameDeduplicator.isEnabled());
+        dedup.addProperty("max_position_delta", FrameDeduplicator.getMaxPositionDelta());
+        dedup.addProperty("max_rotation_delta", FrameDeduplicator.getMaxRotationDelta());
+        dedup.addProperty("max_hash_distance", FrameDeduplicator.getMaxHashDistance());
+        dedup.addProperty("frames_checked", FrameDeduplicator.getFramesChecked());
+        dedup.addProperty("frames_skipped", FrameDeduplicator.getFramesSkipped());
         
-        // Save depth map
-        File outputFile = new File(outputDirectory, frameId + "_depth.png");
-        ImageIO.write(depthImage, "PNG", outputFile);
-        
-        // Also save linearized depth for comparison
-        saveLinearizedDepth(framebuffer, width, height, frameId, nearPlane, farPlane);
+        runManifest.set("frames_captured", frameCounter);
+        runManifest.setSection("dedup", dedup);
+        if (pipeline.getStatistics() != null) {
+            runManifest.setSection("class_statistics", statisticsToJson(pipeline.getStatistics()));
+        }
+        if (frameWriter != null) {
+            runManifest.setSection("writer", frameWriter.getStats());
+        }
+        runManifest.write();
     }
     
     /**
-     * Helper method to save linearized depth for debugging.
+     * Summarizes session class and depth totals. Only classes that were seen are listed.
      */
-    @SuppressWarnings("unused")
-    private static void saveLinearizedDepth(Framebuffer framebuffer, int width, int height, 
-                                           String frameId, float nearPlane, float farPlane) throws IOException {
-        float[] linearDepth = DepthExtractor.extractLinearDepth(framebuffer, width, height, nearPlane, farPlane);
-        byte[] linearGrayscale = DepthExtractor.depthToGrayscale(linearDepth);
+    private static JsonObject statisticsToJson(CaptureStatistics stats) {
+        JsonObject json = new JsonObject();
+        json.addProperty("frames", stats.getFrames());
+        json.addProperty("index_file", statisticsIndexFile.getName());
         
-        BufferedImage linearImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int i = (x + y * width) * 3;
-                int r = linearGrayscale[i] & 0xFF;
-                int g = linearGrayscale[i + 1] & 0xFF;
-                int b = linearGrayscale[i + 2] & 0xFF;
-                linearImage.setRGB(x, height - 1 - y, (r << 16) | (g << 8) | b);
+        JsonArray classes = new JsonArray();
+        long[] pixels = stats.getClassPixels();
+        long[] frames = stats.getClassFrames();
+        for (int c = 0; c < pixels.length; c++) {
+            if (frames[c] > 0) {
+                JsonObject entry = new JsonObject();
+                entry.addProperty("id", c);
+                entry.addProperty("name", BlockClassMap.getClassName(c));
+                entry.addProperty("pixels", pixels[c]);
+                entry.addProperty("frames", frames[c]);
+                classes.add(entry);
             }
         }
+        json.add("classes", classes);
         
-        File outputFile = new File(outputDirectory, frameId + "_depth_linear.png");
-        ImageIO.write(linearImage, "PNG", outputFile);
+        JsonArray depth = new JsonArray();
+        for (long count : stats.getDepthHistogram()) {
+            depth.add(count);
+        }
+        json.add("depth_histogram", depth);
+        return json;
     }
     
     /**
@@ -287,6 +502,85 @@ public class FrameCapture {
         captureInterval = Math.max(1, ticks);
     }
     
+    /**
+     * Sets how depth is saved. Metric formats use the true clip planes from the projection matrix.
+     */
+    public static void setDepthFormat(DepthExtractor.DepthFormat format) {
+        pipeline.setDepthFormat(format);
+    }
+    
+    /**
+     * Enables the surface normal ({@code _normal.png}) and depth edge ({@code _edge.png}) outputs.
+     * 
+     * @param enabled Whether to write normals and edges
+     * @param threshold Relative depth jump (fraction of depth) that marks an edge
+     */
+    public static void setNormalsEnabled(boolean enabled, float threshold) {
+        pipeline.setNormalsEnabled(enabled, threshold);
+    }
+    
+    /**
+     * Enables linearizing metric depth on the GPU before readback. Has no effect on the
+     * legacy grayscale format, whose outputs need the raw depth buffer.
+     */
+    public static void setGpuDepthLinearization(boolean enabled) {
+        gpuDepthLinearization = enabled;
+    }
+    
+    /**
+     * Enables the output pyramid: 1/2 and 1/4 resolution RGB, depth, segmentation and
+     * instance outputs alongside full resolution, all listed in the same manifest record.
+     */
+    public static void setPyramidEnabled(boolean enabled) {
+        pyramidEnabled = enabled;
+    }
+    
+    /**
+     * Enables or disables writing encoded frame files. With it disabled, frames only go to
+     * the local frame stream (and the manifests and session statistics): no output images are built or
+     * encoded, normals and the pyramid are skipped, and nothing but the manifests is written.
+     */
+    public static void setDiskOutputEnabled(boolean enabled) {
+        pipeline.setDiskOutputEnabled(enabled);
+    }
+    
+    /**
+     * Exports a semantic voxel volume ({@code _voxels.bin}) of the loaded chunks within
+     * {@code radiusChunks} of every capture. Singleplayer only; 0 disables.
+     */
+    public static void setVoxelExportRadius(int radiusChunks) {
+        voxelExportRadius = Math.max(0, radiusChunks);
+    }
+    
+    /**
+     * Sets how frame outputs are laid out on disk: one file per output, or packed into
+     * {@code run_<id>_data_NNNN.bin} segments of {@code segmentMegabytes} each (sparse files, not preallocated).
+     */
+    public static void setOutputLayout(FrameWriter.Layout layout, int segmentMegabytes) {
+        outputLayout = layout;
+        segmentBytes = Math.max(1, segmentMegabytes) * 1024L * 1024L;
+        shutdown();
+    }
+    
+    /**
+     * Sets when written frames are fsynced: every frame, every {@code interval} frames, or only on close.
+     * A frame's manifest record is never synced ahead of its data.
+     */
+    public static void setSyncPolicy(FrameWriter.SyncPolicy policy, int interval) {
+        syncPolicy = policy;
+        syncInterval = Math.max(1, interval);
+        shutdown();
+    }
+    
+    /**
+     * Writes packed segments with direct I/O (O_DIRECT), bypassing the page cache.
+     * Ignored for the per-file layout.
+     */
+    public static void setDirectIo(boolean enabled) {
+        directIo = enabled;
+        shutdown();
+    }
+    
     /**
      * Gets the output directory.
      */
@@ -0,0 +1,172 @@
+package com.ggalimi.segmod.render;
+
+import net.minecraft.util.math.Vec3d;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Cheap near-duplicate check that runs on the RGB readback before any
+ * segmentation or encoding work is done.
+ *
+ * A frame is considered a duplicate of the last accepted frame when BOTH
+ * the camera pose barely moved AND a 64-bit luminance hash of the image is
+ * within a small Hamming distance. Requiring both keeps frames where the
+ * player stands still but the scene changes (mobs walking, day/night).
+ */
+public class FrameDeduplicator {
+    
+    // Hash grid is 8x8 cells, one bit per cell
+    private static final int HASH_GRID = 8;
+    // Pixels sampled per cell along each axis (keeps the hash O(1) in frame size)
+    private static final int SAMPLES_PER_CELL = 4;
+    
+    // Dedup settings
+    private static boolean enabled = true;
+    private static double maxPositionDelta = 0.05; // Blocks
+    private static float maxRotationDelta = 0.5f;  // Degrees
+    private static int maxHashDistance = 3;        // Differing bits out of 64
+    
+    // Last accepted frame
+    private static boolean hasReference = false;
+    private static Vec3d lastPos = Vec3d.ZERO;
+    private static float lastYaw = 0.0f;
+    private static float lastPitch = 0.0f;
+    private static long lastHash = 0L;
+    
+    // Statistics for the run manifest
+    private static long framesChecked = 0;
+    private static long framesSkipped = 0;
+    
+    /**
+     * Checks a frame against the last accepted one. Non-duplicate frames
+     * become the new reference.
+     *
+     * @param rgb Raw RGB readback (3 bytes per pixel, bottom-up rows)
+     * @param width Width of the frame
+     * @param height Height of the frame
+     * @param pos Camera position
+     * @param yaw Camera yaw in degrees
+     * @param pitch Camera pitch in degrees
+     * @return true if the frame should be dropped
+     */
+    public static boolean isDuplicate(ByteBuffer rgb, int width, int height, Vec3d pos, float yaw, float pitch) {
+        if (!enabled) {
+            return false;
+        }
+        framesChecked++;
+        
+        long hash = luminanceHash(rgb, width, height);
+        
+        if (hasReference
+                && pos.squaredDistanceTo(lastPos) <= maxPositionDelta * maxPositionDelta
+                && angleDelta(yaw, lastYaw) <= maxRotationDelta
+                && Math.abs(pitch - lastPitch) <= maxRotationDelta
+                && Long.bitCount(hash ^ lastHash) <= maxHashDistance) {
+            framesSkipped++;
+            return true;
+        }
+        
+        hasReference = true;
+        lastPos = pos;
+        lastYaw = yaw;
+        lastPitch = pitch;
+        lastHash = hash;
+        return false;
+    }
+    
+    /**
+     * Computes an 8x8 average hash of the image luminance.
+     * Each cell is estimated from a sparse grid of samples, so cost does not
+     * grow with resolution.
+     */
+    public static long luminanceHash(ByteBuffer rgb, int width, int height) {
+        int[] cellLuma = new int[HASH_GRID * HASH_GRID];
+        long total = 0;
+        
+        for (int cy = 0; cy < HASH_GRID; cy++) {
+            for (int cx = 0; cx < HASH_GRID; cx++) {
+                int sum = 0;
+                for (int sy = 0; sy < SAMPLES_PER_CELL; sy++) {
+                    int y = ((cy * SAMPLES_PER_CELL + sy) * 2 + 1) * height / (HASH_GRID * SAMPLES_PER_CELL * 2);
+                    for (int sx = 0; sx < SAMPLES_PER_CELL; sx++) {
+                        int x = ((cx * SAMPLES_PER_CELL + sx) * 2 + 1) * width / (HASH_GRID * SAMPLES_PER_CELL * 2);
+                        int i = (x + y * width) * 3;
+                        int r = rgb.get(i) & 0xFF;
+                        int g = rgb.get(i + 1) & 0xFF;
+                        int b = rgb.get(i + 2) & 0xFF;
+                        // Integer Rec. 601 luma
+                        sum += (r * 77 + g * 150 + b * 29) >> 8;
+                    }
+                }
+                cellLuma[cx + cy * HASH_GRID] = sum;
+                total += sum;
+            }
+        }
+        
+        long mean = total / cellLuma.length;
+        long hash = 0L;
+        for (int i = 0; i < cellLuma.length; i++) {
+            if (cellLuma[i] > mean) {
+                hash |= 1L << i;
+            }
+        }
+        return hash;
+    }
+    
+    /**
+     * Smallest absolute difference between two yaw angles in degrees.
+     */
+    private static float angleDelta(float a, float b) {
+        float d = Math.abs(a - b) % 360.0f;
+        return d > 180.0f ? 360.0f - d : d;
+    }
+    
+    /**
+     * Forgets the reference frame so the next frame is always accepted
+     * (e.g. after a world change).
+     */
+    public static void reset() {
+        hasReference = false;
+    }
+    
+    public static void setEnabled(boolean value) {
+        enabled = value;
+    }
+    
+    public static boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * Sets the thresholds under which a frame is dropped.
+     *
+     * @param positionDelta Max camera movement in blocks
+     * @param rotationDelta Max yaw/pitch change in degrees
+     * @param hashDistance Max differing hash bits (0-64)
+     */
+    public static void setThresholds(double positionDelta, float rotationDelta, int hashDistance) {
+        maxPositionDelta = Math.max(0.0, positionDelta);
+        maxRotationDelta = Math.max(0.0f, rotationDelta);
+        maxHashDistance = Math.max(0, Math.min(64, hashDistance));
+    }
+    
+    public static double getMaxPositionDelta() {
+        return maxPositionDelta;
+    }
+    
+    public static float getMaxRotationDelta() {
+        return maxRotationDelta;
+    }
+    
+    public static int getMaxHashDistance() {
+        return maxHashDistance;
+    }
+    
+    public static long getFramesChecked() {
+        return framesChecked;
+    }
+    
+    public static long getFramesSkipped() {
+        return framesSkipped;
+    }
+}
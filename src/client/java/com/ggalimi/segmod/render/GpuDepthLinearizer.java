@@ -0,0 +1,229 @@
+package com.ggalimi.segmod.render;
+
+import com.mojang.blaze3d.platform.GlStateManager;
+import com.mojang.blaze3d.systems.RenderSystem;
+import net.minecraft.client.gl.Framebuffer;
+import net.minecraft.client.gl.VertexBuffer;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Linearizes depth on the GPU before readback.
+ *
+ * A fullscreen pass samples the framebuffer's depth attachment, converts it to
+ * metric depth with the true near/far planes, flips it vertically and writes a
+ * single-channel R32F (metres) or R16 (millimetres) render target. Only that
+ * target is read back, instead of the raw depth buffer plus CPU linearization.
+ *
+ * The pass runs in the middle of world rendering, from the capture hook, so all
+ * state it changes goes through GlStateManager and its cached GL state stays
+ * valid. Nothing is queried from GL: afterwards the captured framebuffer is bound
+ * again with its viewport, the VAO and program are unbound the way Minecraft
+ * leaves them after a draw, and blend, cull, scissor and the write masks are set
+ * back to the defaults its render phases restore between layers.
+ */
+public class GpuDepthLinearizer {
+    
+    private static final String VERTEX_SHADER =
+        "#version 150\n" +
+        "void main() {\n" +
+        "    vec2 pos = vec2((gl_VertexID << 1) & 2, gl_VertexID & 2);\n" +
+        "    gl_Position = vec4(pos * 2.0 - 1.0, 0.0, 1.0);\n" +
+        "}\n";
+    
+    private static final String FRAGMENT_SHADER =
+        "#version 150\n" +
+        "uniform sampler2D DepthSampler;\n" +
+        "uniform vec2 Planes;\n" +
+        "uniform float Scale;\n" +
+        "out vec4 fragColor;\n" +
+        "void main() {\n" +
+        "    ivec2 size = textureSize(DepthSampler, 0);\n" +
+        "    ivec2 src = ivec2(int(gl_FragCoord.x), size.y - 1 - int(gl_FragCoord.y));\n" +
+        "    float d = texelFetch(DepthSampler, src, 0).r;\n" +
+        "    float n = Planes.x;\n" +
+        "    float f = Planes.y;\n" +
+        "    float metres = d >= 1.0 ? 0.0 : (2.0 * n * f) / (f + n - (d * 2.0 - 1.0) * (f - n));\n" +
+        "    fragColor = vec4(metres * Scale, 0.0, 0.0, 1.0);\n" +
+        "}\n";
+    
+    // R16 stores millimetres normalized to [0, 1] over 0-65535
+    private static final float MILLIMETRE_SCALE = 1000.0f / 65535.0f;
+    
+    private static int program = 0;
+    private static int planesUniform;
+    private static int scaleUniform;
+    private static int samplerUniform;
+    private static int vao = 0;
+    
+    // One target per format, recreated when the size changes
+    private static final Target FLOAT_TARGET = new Target(GL30.GL_R32F);
+    private static final Target SHORT_TARGET = new Target(GL30.GL_R16);
+    
+    /**
+     * Reads metric depth in metres (0 = sky), top-down rows.
+     */
+    public static float[] readMetres(Framebuffer framebuffer, int width, int height, float nearPlane, float farPlane) {
+        FloatBuffer buffer = BufferUtils.createFloatBuffer(width * height);
+        render(FLOAT_TARGET, framebuffer, width, height, nearPlane, farPlane, 1.0f);
+        GL11.glReadPixels(0, 0, width, height, GL11.GL_RED, GL11.GL_FLOAT, buffer);
+        finish(framebuffer);
+        
+        float[] metres = new float[width * height];
+        buffer.get(metres);
+        return metres;
+    }
+    
+    /**
+     * Reads metric depth as unsigned 16-bit millimetres (0 = sky, saturates at 65.535 m), top-down rows.
+     */
+    public static short[] readMillimetres(Framebuffer framebuffer, int width, int height, float nearPlane, float farPlane) {
+        ShortBuffer buffer = BufferUtils.createShortBuffer(width * height);
+        render(SHORT_TARGET, framebuffer, width, height, nearPlane, farPlane, MILLIMETRE_SCALE);
+        GL11.glReadPixels(0, 0, width, height, GL11.GL_RED, GL11.GL_UNSIGNED_SHORT, buffer);
+        finish(framebuffer);
+        
+        short[] millimetres = new short[width * height];
+        buffer.get(millimetres);
+        return millimetres;
+    }
+    
+    /**
+     * Runs the linearization pass into the target and leaves the target bound for reading.
+     */
+    private static void render(Target target, Framebuffer framebuffer, int width, int height,
+                               float nearPlane, float farPlane, float scale) {
+        RenderSystem.assertOnRenderThread();
+        ensureProgram();
+        int prevActiveTexture = GlStateManager._getActiveTexture(); // Shadow state, not a GL query
+        GlStateManager._activeTexture(GL13.GL_TEXTURE0);
+        target.resize(width, height);
+        
+        // Read and draw: the result is read back from the same target
+        GlStateManager._glBindFramebuffer(GL30.GL_FRAMEBUFFER, target.fbo);
+        GlStateManager._viewport(0, 0, width, height);
+        GlStateManager._disableBlend();
+        GlStateManager._disableCull();
+        GlStateManager._disableScissorTest();
+        GlStateManager._colorMask(true, true, true, true);
+        GlStateManager._depthMask(false);
+        GlStateManager._bindTexture(framebuffer.getDepthAttachment());
+        GlStateManager._glUseProgram(program);
+        GL20.glUniform1i(samplerUniform, 0);
+        GL20.glUniform2f(planesUniform, nearPlane, farPlane);
+        GL20.glUniform1f(scaleUniform, scale);
+        GlStateManager._glBindVertexArray(vao);
+        GL11.glDrawArrays(GL11.GL_TRIANGLES, 0, 3);
+        
+        // Minecraft unbinds its program after every draw; unbinding the VAO also resets
+        // the renderer's cached vertex buffer so its next draw binds its own again
+        GlStateManager._glUseProgram(0);
+        VertexBuffer.unbind();
+        GlStateManager._activeTexture(prevActiveTexture);
+        // Between-layer defaults; blend and scissor stay off
+        GlStateManager._enableCull();
+        GlStateManager._depthMask(true);
+        
+        GlStateManager._pixelStore(GL11.GL_PACK_ALIGNMENT, 1); // 2-byte rows may not be 4-aligned
+    }
+    
+    /**
+     * Restores the pack alignment to GL's default and binds the captured framebuffer again.
+     */
+    private static void finish(Framebuffer framebuffer) {
+        GlStateManager._pixelStore(GL11.GL_PACK_ALIGNMENT, 4);
+        framebuffer.beginWrite(true);
+    }
+    
+    /**
+     * Compiles the shader program and creates the empty VAO on first use.
+     */
+    private static void ensureProgram() {
+        if (program != 0) {
+            return;
+        }
+        int vertex = compileShader(GL20.GL_VERTEX_SHADER, VERTEX_SHADER);
+        int fragment = compileShader(GL20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER);
+        
+        int linked = GL20.glCreateProgram();
+        GL20.glAttachShader(linked, vertex);
+        GL20.glAttachShader(linked, fragment);
+        GL30.glBindFragDataLocation(linked, 0, "fragColor");
+        GL20.glLinkProgram(linked);
+        GL20.glDeleteShader(vertex);
+        GL20.glDeleteShader(fragment);
+        if (GL20.glGetProgrami(linked, GL20.GL_LINK_STATUS) == GL11.GL_FALSE) {
+            String log = GL20.glGetProgramInfoLog(linked);
+            GL20.glDeleteProgram(linked);
+            throw new IllegalStateException("Depth linearization shader failed to link: " + log);
+        }
+        
+        program = linked;
+        planesUniform = GL20.glGetUniformLocation(program, "Planes");
+        scaleUniform = GL20.glGetUniformLocation(program, "Scale");
+        samplerUniform = GL20.glGetUniformLocation(program, "DepthSampler");
+        // Core profile needs a bound VAO even when the vertex shader generates positions
+        vao = GL30.glGenVertexArrays();
+    }
+    
+    private static int compileShader(int type, String source) {
+        int shader = GL20.glCreateShader(type);
+        GL20.glShaderSource(shader, source);
+        GL20.glCompileShader(shader);
+        if (GL20.glGetShaderi(shader, GL20.GL_COMPILE_STATUS) == GL11.GL_FALSE) {
+            String log = GL20.glGetShaderInfoLog(shader);
+            GL20.glDeleteShader(shader);
+            throw new IllegalStateException("Depth linearization shader failed to compile: " + log);
+        }
+        return shader;
+    }
+    
+    /**
+     * Single-channel color render target.
+     */
+    private static class Target {
+        private final int internalFormat;
+        private int fbo = 0;
+        private int texture = 0;
+        private int width = 0;
+        private int height = 0;
+        
+        Target(int internalFormat) {
+            this.internalFormat = internalFormat;
+        }
+        
+        void resize(int newWidth, int newHeight) {
+            if (fbo != 0 && width == newWidth && height == newHeight) {
+                return;
+            }
+            if (fbo == 0) {
+                fbo = GL30.glGenFramebuffers();
+                texture = GL11.glGenTextures();
+            }
+            width = newWidth;
+            height = newHeight;
+            
+            // Bound through GlStateManager so its cache stays right; the pass rebinds both anyway
+            GlStateManager._bindTexture(texture);
+            GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_NEAREST);
+            GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_NEAREST);
+            int format = internalFormat == GL30.GL_R32F ? GL11.GL_FLOAT : GL11.GL_UNSIGNED_SHORT;
+            GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, internalFormat, width, height, 0, GL11.GL_RED, format, (ByteBuffer) null);
+            
+            GlStateManager._glBindFramebuffer(GL30.GL_FRAMEBUFFER, fbo);
+            GL30.glFramebufferTexture2D(GL30.GL_FRAMEBUFFER, GL30.GL_COLOR_ATTACHMENT0, GL11.GL_TEXTURE_2D, texture, 0);
+            int status = GL30.glCheckFramebufferStatus(GL30.GL_FRAMEBUFFER);
+            
+            if (status != GL30.GL_FRAMEBUFFER_COMPLETE) {
+                throw new IllegalStateException("Depth linearization target incomplete: 0x" + Integer.toHexString(status));
+            }
+        }
+    }
+}
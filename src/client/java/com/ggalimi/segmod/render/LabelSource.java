@@ -0,0 +1,48 @@
+package com.ggalimi.segmod.render;
+
+import com.ggalimi.segmod.util.BlockClassMap;
+
+import java.util.List;
+
+/**
+ * What {@link SegmentationRenderer} casts its label rays against: the client world
+ * in game, or a stand-in world outside it (the soak test). Sampling, instance
+ * grouping and upscaling stay in SegmentationRenderer either way.
+ */
+public interface LabelSource {
+    
+    /**
+     * Casts the ray through pixel (x, y), top-down rows, and fills in what it hit.
+     * {@code out} is reset to a sky sample before each call.
+     */
+    void sample(int x, int y, Sample out);
+    
+    /**
+     * Whether two block hits (see {@link Sample#block}) touch, including diagonally,
+     * or are the same block.
+     */
+    boolean adjacent(long blockA, long blockB);
+    
+    /**
+     * Entities that were candidates for hits; entity i has instance ID i + 1.
+     */
+    List<EntityGrid.Entry> getEntities();
+    
+    /**
+     * What one label ray hit.
+     */
+    class Sample {
+        /** Class ID of the hit, {@link BlockClassMap#NO_CLASS} for sky. */
+        public int classId;
+        /** Entity instance ID, 0 if not an entity. */
+        public int entity;
+        /** Position of a block hit, in whatever packing {@link LabelSource#adjacent} understands. */
+        public long block;
+        
+        void reset() {
+            classId = BlockClassMap.NO_CLASS;
+            entity = 0;
+            block = 0;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.ggalimi.segmod.render;
+
+import com.ggalimi.segmod.mixin.client.MinecraftClientAccessor;
+import com.mojang.blaze3d.systems.RenderSystem;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.gl.Framebuffer;
+import net.minecraft.client.gl.SimpleFramebuffer;
+
+import java.util.List;
+
+/**
+ * Renders the world into a dedicated offscreen framebuffer at a fixed resolution,
+ * independent of the window size.
+ *
+ * For the duration of the render the offscreen framebuffer is swapped in as the
+ * client's main framebuffer and the window reports its size (see WindowMixin),
+ * so the vanilla world renderer, the AFTER_ENTITIES capture hook and every
+ * readback in FrameCapture all work on the capture target unchanged. The window
+ * keeps rendering at its own resolution; the extra world render only happens
+ * on frames that are captured, from the frame's render pass just before the
+ * window's own world render (see GameRendererCaptureMixin).
+ *
+ * The world renderer's window-sized targets (entity outlines, Fabulous passes)
+ * are only resized when the capture size differs from the window's. Fabulous
+ * graphics are not supported: the transparency post-processor stays bound to the
+ * window framebuffer, so FrameCapture refuses offscreen captures in that mode.
+ *
+ * With a camera rig set, every view is rendered in the same session: the
+ * framebuffer swap and any renderer resize happen once, and all views see the same
+ * world state since no ticks or packets are processed in between. The views share
+ * one entity grid for segmentation, and if the first view is dropped as a
+ * duplicate the remaining views are not rendered at all.
+ */
+public class OffscreenCaptureTarget {
+    
+    private static final MinecraftClient client = MinecraftClient.getInstance();
+    
+    // Capture settings
+    private static boolean enabled = false;
+    private static int width = 1024;
+    private static int height = 1024;
+    
+    private static CameraRig cameraRig = null;
+    
+    private static Framebuffer framebuffer;
+    private static boolean rendering = false;
+    private static CameraRig.View activeView = null;
+    private static int activeViewIndex = -1;
+    private static boolean skipRemainingViews = false;
+    
+    /**
+     * Renders one world frame into the offscreen target, or one per view when a
+     * camera rig is set. FrameCapture's AFTER_ENTITIES hook fires during each
+     * render and captures from it.
+     */
+    public static void render() {
+        RenderSystem.assertOnRenderThread();
+        if (client.world == null || client.player == null) {
+            return;
+        }
+        ensureFramebuffer();
+        
+        Framebuffer windowFramebuffer = client.getFramebuffer();
+        MinecraftClientAccessor accessor = (MinecraftClientAccessor) client;
+        
+        // Reallocating the world renderer's own targets is costly, so skip it when the sizes match
+        boolean resize = width != windowFramebuffer.textureWidth || height != windowFramebuffer.textureHeight;
+        
+        rendering = true;
+        skipRemainingViews = false;
+        accessor.setFramebuffer(framebuffer);
+        try {
+            if (resize) {
+                client.worldRenderer.onResized(width, height);
+            }
+            if (cameraRig == null) {
+                framebuffer.beginWrite(true);
+                client.gameRenderer.renderWorld(client.getRenderTickCounter());
+            } else {
+                List<CameraRig.View> views = cameraRig.getViews();
+                for (int i = 0; i < views.size() && !skipRemainingViews; i++) {
+                    activeView = views.get(i);
+                    activeViewIndex = i;
+                    framebuffer.beginWrite(true);
+                    client.gameRenderer.renderWorld(client.getRenderTickCounter());
+                }
+            }
+        } finally {
+            rendering = false;
+            activeView = null;
+            activeViewIndex = -1;
+            SegmentationRenderer.releaseRigEntityGrid();
+            accessor.setFramebuffer(windowFramebuffer);
+            if (resize) {
+                client.worldRenderer.onResized(windowFramebuffer.textureWidth, windowFramebuffer.textureHeight);
+            }
+            windowFramebuffer.beginWrite(true);
+        }
+    }
+    
+    /**
+     * Stops the current camera rig capture after the view being rendered.
+     */
+    public static void skipRemainingViews() {
+        skipRemainingViews = true;
+    }
+    
+    /**
+     * Creates the framebuffer, or resizes it if the resolution changed.
+     */
+    private static void ensureFramebuffer() {
+        if (framebuffer == null) {
+            framebuffer = new SimpleFramebuffer(width, height, true, MinecraftClient.IS_SYSTEM_MAC);
+            framebuffer.setClearColor(0.0f, 0.0f, 0.0f, 0.0f);
+        } else if (framebuffer.textureWidth != width || framebuffer.textureHeight != height) {
+            framebuffer.resize(width, height, MinecraftClient.IS_SYSTEM_MAC);
+        }
+    }
+    
+    /**
+     * Enables or disables offscreen capture. When enabled, captures are taken
+     * only from the offscreen render, never from the window.
+     */
+    public static void setEnabled(boolean value) {
+        enabled = value;
+        if (!value && framebuffer != null) {
+            RenderSystem.recordRenderCall(() -> {
+                if (!enabled && framebuffer != null) {
+                    framebuffer.delete();
+                    framebuffer = null;
+                }
+            });
+        }
+    }
+    
+    /**
+     * Sets the capture resolution, clamped to the GPU's max texture size.
+     */
+    public static void setResolution(int newWidth, int newHeight) {
+        int max = RenderSystem.maxSupportedTextureSize();
+        width = Math.max(1, Math.min(max, newWidth));
+        height = Math.max(1, Math.min(max, newHeight));
+    }
+    
+    /**
+     * Sets the cameras captured on every offscreen capture, or null for the player camera only.
+     */
+    public static void setCameraRig(CameraRig rig) {
+        cameraRig = rig;
+    }
+    
+    public static CameraRig getCameraRig() {
+        return cameraRig;
+    }
+    
+    /**
+     * The rig view currently being rendered, or null outside a rig render.
+     */
+    public static CameraRig.View getActiveView() {
+        return activeView;
+    }
+    
+    public static int getActiveViewIndex() {
+        return activeViewIndex;
+    }
+    
+    /**
+     * Vertical FOV in degrees of the view being rendered: the rig view's fixed FOV
+     * if it has one, otherwise the game's FOV setting.
+     */
+    public static double getFov() {
+        if (activeView != null && activeView.fov > 0.0) {
+            return activeView.fov;
+        }
+        return client.options.getFov().getValue();
+    }
+    
+    public static boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * Whether the world is currently being rendered into the offscreen target.
+     */
+    public static boolean isRendering() {
+        return rendering;
+    }
+    
+    public static int getWidth() {
+        return width;
+    }
+    
+    public static int getHeight() {
+        return height;
+    }
+}
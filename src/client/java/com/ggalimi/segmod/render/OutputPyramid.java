@@ -0,0 +1,222 @@
+package com.ggalimi.segmod.render;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.gl.Framebuffer;
+import net.minecraft.client.gl.SimpleFramebuffer;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL30;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Builds the 1/2 and 1/4 resolution levels of the output pyramid.
+ *
+ * RGB is downsampled on the GPU with linear-filtered blits (an exact 2x2 box
+ * filter at half size, for even sizes) and depth with nearest blits, since averaging depth
+ * across silhouettes would invent surfaces. Both smaller levels are packed into
+ * one atlas framebuffer, so they cost a single extra RGB and depth readback
+ * of 3/16 of the full frame's pixels.
+ *
+ * Atlas layout (GL coordinates, origin bottom-left):
+ * <pre>
+ *   +----------+
+ *   | 1/4 |    |   y = h/2 .. h/2 + h/4
+ *   +----------+
+ *   |   1/2    |   y = 0 .. h/2
+ *   +----------+
+ * </pre>
+ *
+ * Segmentation labels are downsampled on the CPU with a mode filter so every
+ * output pixel keeps a real class and instance ID. It uses the blits' scaling,
+ * so odd sizes stay aligned with the RGB and depth levels.
+ */
+public class OutputPyramid {
+    
+    /** Downsampled levels produced in addition to full resolution (1/2 and 1/4). */
+    public static final int EXTRA_LEVELS = 2;
+    
+    private static SimpleFramebuffer atlas;
+    
+    /**
+     * One downsampled level.
+     */
+    public static class Level {
+        public final int width;
+        public final int height;
+        /** RGB readback, 3 bytes per pixel, bottom-up rows. */
+        public final ByteBuffer rgb;
+        /** Raw [0, 1] depth buffer values, bottom-up rows. */
+        public final float[] rawDepth;
+        
+        Level(int width, int height, ByteBuffer rgb, float[] rawDepth) {
+            this.width = width;
+            this.height = height;
+            this.rgb = rgb;
+            this.rawDepth = rawDepth;
+        }
+    }
+    
+    /**
+     * Downsamples the framebuffer's color and depth to 1/2 and 1/4 and reads both levels back.
+     *
+     * @param source Framebuffer holding the captured frame
+     * @param width Width of the source
+     * @param height Height of the source
+     * @return The 1/2 and 1/4 levels, in that order
+     */
+    public static Level[] downsample(Framebuffer source, int width, int height) {
+        RenderSystem.assertOnRenderThread();
+        int halfW = Math.max(1, width / 2);
+        int halfH = Math.max(1, height / 2);
+        int quarterW = Math.max(1, halfW / 2);
+        int quarterH = Math.max(1, halfH / 2);
+        int atlasW = halfW;
+        int atlasH = halfH + quarterH;
+        
+        // Saved before ensureAtlas: creating or resizing a Minecraft framebuffer rebinds the target and viewport
+        int prevRead = GL11.glGetInteger(GL30.GL_READ_FRAMEBUFFER_BINDING);
+        int prevDraw = GL11.glGetInteger(GL30.GL_DRAW_FRAMEBUFFER_BINDING);
+        int prevPack = GL11.glGetInteger(GL11.GL_PACK_ALIGNMENT);
+        int[] prevViewport = new int[4];
+        GL11.glGetIntegerv(GL11.GL_VIEWPORT, prevViewport);
+        ensureAtlas(atlasW, atlasH);
+        
+        // Full -> 1/2, then 1/2 -> 1/4 from the atlas itself (the regions don't overlap)
+        GL30.glBindFramebuffer(GL30.GL_READ_FRAMEBUFFER, source.fbo);
+        GL30.glBindFramebuffer(GL30.GL_DRAW_FRAMEBUFFER, atlas.fbo);
+        GL30.glBlitFramebuffer(0, 0, width, height, 0, 0, halfW, halfH, GL11.GL_COLOR_BUFFER_BIT, GL11.GL_LINEAR);
+        GL30.glBlitFramebuffer(0, 0, width, height, 0, 0, halfW, halfH, GL11.GL_DEPTH_BUFFER_BIT, GL11.GL_NEAREST);
+        GL30.glBindFramebuffer(GL30.GL_READ_FRAMEBUFFER, atlas.fbo);
+        GL30.glBlitFramebuffer(0, 0, halfW, halfH, 0, halfH, quarterW, halfH + quarterH, GL11.GL_COLOR_BUFFER_BIT, GL11.GL_LINEAR);
+        GL30.glBlitFramebuffer(0, 0, halfW, halfH, 0, halfH, quarterW, halfH + quarterH, GL11.GL_DEPTH_BUFFER_BIT, GL11.GL_NEAREST);
+        
+        // One readback of the whole atlas per channel
+        ByteBuffer rgb = BufferUtils.createByteBuffer(atlasW * atlasH * 3);
+        FloatBuffer depth = BufferUtils.createFloatBuffer(atlasW * atlasH);
+        GL11.glPixelStorei(GL11.GL_PACK_ALIGNMENT, 1);
+        GL11.glReadPixels(0, 0, atlasW, atlasH, GL11.GL_RGB, GL11.GL_UNSIGNED_BYTE, rgb);
+        GL11.glReadPixels(0, 0, atlasW, atlasH, GL11.GL_DEPTH_COMPONENT, GL11.GL_FLOAT, depth);
+        
+        GL11.glPixelStorei(GL11.GL_PACK_ALIGNMENT, prevPack);
+        GL30.glBindFramebuffer(GL30.GL_READ_FRAMEBUFFER, prevRead);
+        GL30.glBindFramebuffer(GL30.GL_DRAW_FRAMEBUFFER, prevDraw);
+        GL11.glViewport(prevViewport[0], prevViewport[1], prevViewport[2], prevViewport[3]);
+        
+        return new Level[] {
+            slice(rgb, depth, atlasW, 0, halfW, halfH),
+            slice(rgb, depth, atlasW, halfH, quarterW, quarterH)
+        };
+    }
+    
+    /**
+     * Copies one level's rows out of the atlas readback.
+     */
+    private static Level slice(ByteBuffer rgb, FloatBuffer depth, int atlasW, int y0, int width, int height) {
+        ByteBuffer levelRgb = ByteBuffer.allocateDirect(width * height * 3);
+        float[] levelDepth = new float[width * height];
+        byte[] row = new byte[width * 3];
+        for (int y = 0; y < height; y++) {
+            int src = (y0 + y) * atlasW;
+            rgb.get(src * 3, row);
+            levelRgb.put(y * width * 3, row);
+            depth.get(src, levelDepth, y * width, width);
+        }
+        return new Level(width, height, levelRgb, levelDepth);
+    }
+    
+    /**
+     * Halves a label map with a mode filter: each output pixel takes the label that covers
+     * most of its footprint (earliest in row order on ties), so labels are never blended.
+     *
+     * The footprint follows the blits' pixel-center scaling by width / outW and height / outH:
+     * the input pixels whose centers lie inside the output pixel, edges included. That is 2x2
+     * for even sizes and up to 3x3 for odd ones, where the blits scale the whole image rather
+     * than dropping the last row or column. Including both edges makes the footprint the same
+     * whichever way the rows run (the labels are top-down, the GPU levels bottom-up).
+     *
+     * @param labels Class or instance IDs, width * height
+     * @return Labels at (width / 2) x (height / 2), same row order as the input
+     */
+    public static int[] modeDownsample(int[] labels, int width, int height) {
+        int outW = Math.max(1, width / 2);
+        int outH = Math.max(1, height / 2);
+        int[] firstX = new int[outW];
+        int[] lastX = new int[outW];
+        for (int x = 0; x < outW; x++) {
+            firstX[x] = firstCovered(x, width, outW);
+            lastX[x] = lastCovered(x, width, outW);
+        }
+        
+        int[] out = new int[outW * outH];
+        int[] block = new int[9];
+        for (int y = 0; y < outH; y++) {
+            int firstY = firstCovered(y, height, outH);
+            int lastY = lastCovered(y, height, outH);
+            for (int x = 0; x < outW; x++) {
+                int count = 0;
+                for (int sy = firstY; sy <= lastY; sy++) {
+                    for (int sx = firstX[x]; sx <= lastX[x]; sx++) {
+                        block[count++] = labels[sy * width + sx];
+                    }
+                }
+                out[y * outW + x] = mode(block, count);
+            }
+        }
+        return out;
+    }
+    
+    /**
+     * First input pixel whose center, at (i + 0.5), is at or past the output pixel's
+     * start, out * size / outSize. Exact integer form of ceil(out * size / outSize - 0.5).
+     */
+    private static int firstCovered(int out, int size, int outSize) {
+        int first = -Math.floorDiv(outSize - 2 * out * size, 2 * outSize);
+        return Math.max(0, first);
+    }
+    
+    /**
+     * Last input pixel whose center is at or before the output pixel's end.
+     * Exact integer form of floor((out + 1) * size / outSize - 0.5).
+     */
+    private static int lastCovered(int out, int size, int outSize) {
+        int last = Math.floorDiv(2 * (out + 1) * size - outSize, 2 * outSize);
+        return Math.min(size - 1, last);
+    }
+    
+    /**
+     * Most frequent of the first {@code count} labels, the earliest one on ties.
+     */
+    private static int mode(int[] block, int count) {
+        int mode = block[0];
+        int modeCount = 0;
+        for (int i = 0; i < count && modeCount * 2 <= count; i++) {
+            int label = block[i];
+            int labelCount = 0;
+            for (int j = i; j < count; j++) {
+                if (block[j] == label) {
+                    labelCount++;
+                }
+            }
+            if (labelCount > modeCount) {
+                mode = label;
+                modeCount = labelCount;
+            }
+        }
+        return mode;
+    }
+    
+    /**
+     * Creates the atlas framebuffer, or resizes it if the frame size changed.
+     * Created through Minecraft so its depth format matches the source for depth blits.
+     */
+    private static void ensureAtlas(int width, int height) {
+        if (atlas == null) {
+            atlas = new SimpleFramebuffer(width, height, true, MinecraftClient.IS_SYSTEM_MAC);
+        } else if (atlas.textureWidth != width || atlas.textureHeight != height) {
+            atlas.resize(width, height, MinecraftClient.IS_SYSTEM_MAC);
+        }
+    }
+}
@@ -17,6 +17,7 @@ import net.minecraft.util.math.Vec3d;
 import org.joml.Matrix4f;
 
 import java.awt.image.BufferedImage;
+import java.util.List;
 
 /**
  * Renders the world with blocks colored by their segmentation class.
@@ -25,6 +26,14 @@ import java.awt.image.BufferedImage;
 public class SegmentationRenderer {
     
     private static final MinecraftClient client = MinecraftClient.getInstance();
+    private static final double MAX_RAY_DISTANCE = 100.0;
+    
+    // Class color table, created on first use once registries are frozen
+    private static int[] palette;
+    private static boolean[] paletteResolved;
+    
+    // Entity grid shared by all views of one camera rig capture
+    private static EntityGrid rigEntityGrid;
     
     /**
      * Renders a segmentation mask by ray-casting through each pixel and coloring by block type.
@@ -94,8 +103,8 @@ public class SegmentationRenderer {
         float x = 1.0f - (2.0f * pixelX) / screenWidth;
         float y = 1.0f - (2.0f * pixelY) / screenHeight;
         
-        // Get FOV - use base FOV value (dynamic effects are minimal)
-        double fov = client.options.getFov().getValue();
+        // Get FOV - use base FOV value (dynamic effects are minimal), or the camera rig view's FOV
+        double fov = OffscreenCaptureTarget.getFov();
         double fovScale = Math.tan(Math.toRadians(fov / 2.0));
         double aspectRatio = (double) screenWidth / screenHeight;
         
@@ -164,42 +173,290 @@ public class SegmentationRenderer {
      * Samples blocks at regular intervals instead of per-pixel raycasting.
      */
     public static BufferedImage renderSegmentationMaskFast(int width, int height, int sampleRate) {
-        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        return classMapToImage(renderClassMap(width, height, sampleRate), width, height);
+    }
+    
+    /**
+     * Class and instance labels for one frame.
+     */
+    public static class Result {
+        /** Class ID per pixel, top-down rows, {@link BlockClassMap#NO_CLASS} for sky. */
+        public final int[] classIds;
+        /** Instance ID per pixel, top-down rows, 0 for sky. Entities come first, then block regions. */
+        public final int[] instanceIds;
+        /**
+         * Entities that were candidates for hits; entity i has instance ID i + 1.
+         * The views of one camera rig capture share the list, so their entity IDs match.
+         */
+        public final List<EntityGrid.Entry> entities;
+        /** Total number of instance IDs used (entities + block regions). */
+        public final int instanceCount;
         
-        ClientWorld world = client.world;
-        if (world == null || client.player == null) {
-            return image;
+        Result(int[] classIds, int[] instanceIds, List<EntityGrid.Entry> entities, int instanceCount) {
+            this.classIds = classIds;
+            this.instanceIds = instanceIds;
+            this.entities = entities;
+            this.instanceCount = instanceCount;
+        }
+    }
+    
+    /**
+     * Renders a per-pixel class ID map (see {@link BlockClassMap#getClassId}) by ray-casting
+     * every {@code sampleRate}-th pixel and filling the sampled block of pixels.
+     * Rows are top-down, matching the saved images.
+     * 
+     * @param width Width of the output map
+     * @param height Height of the output map
+     * @param sampleRate Sampling step in pixels (1 = every pixel)
+     * @return Class IDs, one per pixel, {@link BlockClassMap#NO_CLASS} for sky
+     */
+    public static int[] renderClassMap(int width, int height, int sampleRate) {
+        return renderSegmentation(width, height, sampleRate).classIds;
+    }
+    
+    /**
+     * Renders class and instance labels for blocks and entities in the client world.
+     * 
+     * Each ray is cast against blocks first; the entity grid is then walked only up to
+     * the block hit, so entities in front of a block win.
+     * 
+     * @param width Width of the output maps
+     * @param height Height of the output maps
+     * @param sampleRate Sampling step in pixels (1 = every pixel)
+     * @return Class and instance maps
+     */
+    public static Result renderSegmentation(int width, int height, int sampleRate) {
+        if (client.world == null || client.player == null) {
+            return new Result(new int[width * height], new int[width * height], List.of(), 0);
+        }
+        return renderSegmentation(width, height, sampleRate, createLabelSource(width, height));
+    }
+    
+    /**
+     * Renders class and instance labels by sampling {@code source} every {@code sampleRate} pixels.
+     * 
+     * Entities get one instance each. Block samples are grouped into instances when neighbouring
+     * samples hit the same block type at adjacent block positions, i.e. connected same-type
+     * regions of visible surface.
+     * 
+     * @param width Width of the output maps
+     * @param height Height of the output maps
+     * @param sampleRate Sampling step in pixels (1 = every pixel)
+     * @param source World the label rays are cast against
+     * @return Class and instance maps
+     */
+    public static Result renderSegmentation(int width, int height, int sampleRate, LabelSource source) {
+        int[] classIds = new int[width * height];
+        int[] instanceIds = new int[width * height];
+        
+        // Per-sample results on the sampling grid
+        int samplesX = (width + sampleRate - 1) / sampleRate;
+        int samplesY = (height + sampleRate - 1) / sampleRate;
+        int[] sampleClass = new int[samplesX * samplesY];
+        int[] sampleEntity = new int[samplesX * samplesY];   // Entity instance ID, 0 if not an entity
+        long[] sampleBlock = new long[samplesX * samplesY];  // Block hit position, as packed by the source
+        
+        LabelSource.Sample sample = new LabelSource.Sample();
+        for (int sy = 0; sy < samplesY; sy++) {
+            for (int sx = 0; sx < samplesX; sx++) {
+                int s = sx + sy * samplesX;
+                sample.reset();
+                source.sample(sx * sampleRate, sy * sampleRate, sample);
+                sampleClass[s] = sample.classId;
+                sampleEntity[s] = sample.entity;
+                sampleBlock[s] = sample.block;
+            }
         }
         
-        Vec3d cameraPos = client.gameRenderer.getCamera().getPos();
+        // Union neighbouring block samples of the same type that hit adjacent blocks
+        int[] parent = new int[sampleClass.length];
+        for (int s = 0; s < parent.length; s++) {
+            parent[s] = s;
+        }
+        for (int sy = 0; sy < samplesY; sy++) {
+            for (int sx = 0; sx < samplesX; sx++) {
+                int s = sx + sy * samplesX;
+                if (sampleClass[s] == BlockClassMap.NO_CLASS || sampleEntity[s] != 0) {
+                    continue;
+                }
+                if (sx > 0 && sameRegion(s, s - 1, sampleClass, sampleEntity, sampleBlock, source)) {
+                    union(parent, s, s - 1);
+                }
+                if (sy > 0 && sameRegion(s, s - samplesX, sampleClass, sampleEntity, sampleBlock, source)) {
+                    union(parent, s, s - samplesX);
+                }
+            }
+        }
         
-        // Sample at lower resolution and upscale
-        for (int y = 0; y < height; y += sampleRate) {
-            for (int x = 0; x < width; x += sampleRate) {
+        // Number block regions after the entities
+        List<EntityGrid.Entry> entities = source.getEntities();
+        int nextInstance = entities.size() + 1;
+        int[] regionId = new int[sampleClass.length];
+        int[] sampleInstance = new int[sampleClass.length];
+        for (int s = 0; s < sampleClass.length; s++) {
+            if (sampleEntity[s] != 0) {
+                sampleInstance[s] = sampleEntity[s];
+            } else if (sampleClass[s] != BlockClassMap.NO_CLASS) {
+                int root = find(parent, s);
+                if (regionId[root] == 0) {
+                    regionId[root] = nextInstance++;
+                }
+                sampleInstance[s] = regionId[root];
+            }
+        }
+        
+        // Upscale samples to full resolution
+        for (int y = 0; y < height; y++) {
+            int sampleRow = (y / sampleRate) * samplesX;
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                int s = sampleRow + x / sampleRate;
+                classIds[row + x] = sampleClass[s];
+                instanceIds[row + x] = sampleInstance[s];
+            }
+        }
+        
+        return new Result(classIds, instanceIds, entities, nextInstance - 1);
+    }
+    
+    /**
+     * Label source for the client world from the current camera, with a spatial grid over
+     * the entities in view, built once for all of the frame's rays. Needs a client world.
+     */
+    public static LabelSource createLabelSource(int width, int height) {
+        ClientWorld world = client.world;
+        net.minecraft.client.render.Camera camera = client.gameRenderer.getCamera();
+        Vec3d cameraPos = camera.getPos();
+        org.joml.Vector3f forwardVec = camera.getHorizontalPlane();
+        Vec3d forward = new Vec3d(forwardVec.x, forwardVec.y, forwardVec.z);
+        
+        EntityGrid entityGrid;
+        if (OffscreenCaptureTarget.getActiveView() != null) {
+            entityGrid = getRigEntityGrid(world, cameraPos, forward);
+        } else {
+            double tanHalfFov = Math.tan(Math.toRadians(OffscreenCaptureTarget.getFov() / 2.0));
+            double aspectRatio = (double) width / height;
+            double halfFovDiagonal = Math.atan(tanHalfFov * Math.sqrt(1.0 + aspectRatio * aspectRatio));
+            entityGrid = new EntityGrid(world.getEntities(), client.getCameraEntity(),
+                cameraPos, forward, halfFovDiagonal, MAX_RAY_DISTANCE);
+        }
+        
+        return new LabelSource() {
+            @Override
+            public void sample(int x, int y, Sample out) {
                 Vec3d rayDir = getRayFromCamera(x, y, width, height);
-                HitResult hit = raycast(world, cameraPos, rayDir, 100.0);
+                HitResult hit = raycast(world, cameraPos, rayDir, MAX_RAY_DISTANCE);
                 
-                int[] color;
+                double blockDistance = MAX_RAY_DISTANCE;
                 if (hit.getType() == HitResult.Type.BLOCK) {
-                    BlockHitResult blockHit = (BlockHitResult) hit;
-                    BlockState state = world.getBlockState(blockHit.getBlockPos());
-                    Block block = state.getBlock();
-                    color = BlockClassMap.getBlockColor(block);
-                } else {
-                    color = new int[]{0, 0, 0};
+                    BlockPos pos = ((BlockHitResult) hit).getBlockPos();
+                    BlockState state = world.getBlockState(pos);
+                    out.classId = BlockClassMap.getClassId(state.getBlock());
+                    out.block = pos.asLong();
+                    blockDistance = hit.getPos().distanceTo(cameraPos);
                 }
                 
-                int rgb = (color[0] << 16) | (color[1] << 8) | color[2];
-                
-                // Fill block of pixels
-                for (int dy = 0; dy < sampleRate && y + dy < height; dy++) {
-                    for (int dx = 0; dx < sampleRate && x + dx < width; dx++) {
-                        image.setRGB(x + dx, y + dy, rgb);
-                    }
+                if (entityGrid.raycast(cameraPos, rayDir, blockDistance)) {
+                    EntityGrid.Entry entity = entityGrid.getHitEntry();
+                    out.classId = entity.classId;
+                    out.entity = entity.instanceId;
                 }
             }
+            
+            @Override
+            public boolean adjacent(long blockA, long blockB) {
+                return Math.abs(BlockPos.unpackLongX(blockA) - BlockPos.unpackLongX(blockB)) <= 1
+                    && Math.abs(BlockPos.unpackLongY(blockA) - BlockPos.unpackLongY(blockB)) <= 1
+                    && Math.abs(BlockPos.unpackLongZ(blockA) - BlockPos.unpackLongZ(blockB)) <= 1;
+            }
+            
+            @Override
+            public List<EntityGrid.Entry> getEntities() {
+                return entityGrid.getEntries();
+            }
+        };
+    }
+    
+    /**
+     * The entity grid for the current camera rig capture, built on its first view.
+     * Views look in different directions, so it keeps entities all around the camera,
+     * and its range covers the distance between any two views.
+     */
+    private static EntityGrid getRigEntityGrid(ClientWorld world, Vec3d cameraPos, Vec3d forward) {
+        if (rigEntityGrid == null) {
+            double margin = 2.0 * OffscreenCaptureTarget.getCameraRig().getMaxOffset();
+            rigEntityGrid = new EntityGrid(world.getEntities(), client.getCameraEntity(),
+                cameraPos, forward, Math.PI, MAX_RAY_DISTANCE + margin);
+        }
+        return rigEntityGrid;
+    }
+    
+    /**
+     * Drops the entity grid of the camera rig capture that just finished.
+     */
+    public static void releaseRigEntityGrid() {
+        rigEntityGrid = null;
+    }
+    
+    /**
+     * Whether two block samples belong to the same connected region:
+     * same class and hit blocks that touch (including diagonally) or are the same block.
+     */
+    private static boolean sameRegion(int a, int b, int[] sampleClass, int[] sampleEntity, long[] sampleBlock,
+                                      LabelSource source) {
+        if (sampleEntity[b] != 0 || sampleClass[a] != sampleClass[b]) {
+            return false;
+        }
+        return source.adjacent(sampleBlock[a], sampleBlock[b]);
+    }
+    
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]]; // Path halving
+            i = parent[i];
+        }
+        return i;
+    }
+    
+    private static void union(int[] parent, int a, int b) {
+        int ra = find(parent, a);
+        int rb = find(parent, b);
+        if (ra != rb) {
+            parent[Math.max(ra, rb)] = Math.min(ra, rb);
+        }
+    }
+    
+    /**
+     * Packs instance IDs into a 24-bit RGB image (id = 0xRRGGBB, 0 = sky).
+     */
+    public static BufferedImage instanceMapToImage(int[] instanceIds, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width, height, instanceIds, 0, width);
+        return image;
+    }
+    
+    /**
+     * Converts a class ID map into the colored segmentation mask.
+     */
+    public static BufferedImage classMapToImage(int[] classIds, int width, int height) {
+        // Resolve each class color once, shared by every view, level and frame of the session
+        if (palette == null) {
+            palette = new int[BlockClassMap.getClassCount()];
+            paletteResolved = new boolean[palette.length];
+        }
+        
+        int[] pixels = new int[classIds.length];
+        for (int i = 0; i < classIds.length; i++) {
+            int classId = classIds[i];
+            if (!paletteResolved[classId]) {
+                palette[classId] = BlockClassMap.getClassColorPacked(classId);
+                paletteResolved[classId] = true;
+            }
+            pixels[i] = palette[classId];
         }
         
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
         return image;
     }
 }
@@ -2,6 +2,7 @@ package com.ggalimi.segmod.util;
 
 import net.minecraft.block.Block;
 import net.minecraft.block.Blocks;
+import net.minecraft.entity.EntityType;
 import net.minecraft.registry.Registries;
 import net.minecraft.util.Identifier;
 
@@ -9,13 +10,14 @@ import java.util.HashMap;
 import java.util.Map;
 
 /**
- * Maps Minecraft blocks to unique RGB colors for segmentation masks.
+ * Maps Minecraft blocks (and entity types) to unique RGB colors for segmentation masks.
  * Uses deterministic color generation based on block registry IDs to ensure
  * consistent colors across runs.
  */
 public class BlockClassMap {
     
     private static final Map<Block, int[]> BLOCK_COLOR_CACHE = new HashMap<>();
+    private static final Map<EntityType<?>, int[]> ENTITY_COLOR_CACHE = new HashMap<>();
     
     /**
      * Gets the RGB color for a given block for segmentation purposes.
@@ -31,8 +33,32 @@ public class BlockClassMap {
         }
         
         // Generate deterministic color based on block ID
-        Identifier blockId = Registries.BLOCK.getId(block);
-        int hash = blockId.toString().hashCode();
+        int[] color = colorForId(Registries.BLOCK.getId(block));
+        BLOCK_COLOR_CACHE.put(block, color);
+        
+        return color;
+    }
+    
+    /**
+     * Gets the RGB color for an entity type, generated the same way as block colors.
+     * 
+     * @param type The entity type to get the color for
+     * @return An RGB array [r, g, b] with values 0-255
+     */
+    public static int[] getEntityColor(EntityType<?> type) {
+        int[] color = ENTITY_COLOR_CACHE.get(type);
+        if (color == null) {
+            color = colorForId(Registries.ENTITY_TYPE.getId(type));
+            ENTITY_COLOR_CACHE.put(type, color);
+        }
+        return color;
+    }
+    
+    /**
+     * Deterministic color from a registry identifier's hash.
+     */
+    private static int[] colorForId(Identifier id) {
+        int hash = id.toString().hashCode();
         
         // Use hash to generate RGB values
         // Ensure colors are distinct and bright enough to be visible
@@ -45,10 +71,7 @@ public class BlockClassMap {
         g = Math.max(g, 30);
         b = Math.max(b, 30);
         
-        int[] color = new int[]{r, g, b};
-        BLOCK_COLOR_CACHE.put(block, color);
-        
-        return color;
+        return new int[]{r, g, b};
     }
     
     /**
@@ -62,6 +85,76 @@ public class BlockClassMap {
         return (rgb[0] << 16) | (rgb[1] << 8) | rgb[2];
     }
     
+    /**
+     * Class ID used for pixels that hit nothing (sky / beyond raycast range).
+     */
+    public static final int NO_CLASS = 0;
+    
+    /**
+     * Gets the dense class ID for a block, used for statistics and label buffers.
+     * IDs are the block's raw registry ID shifted by one so that 0 is reserved for "nothing".
+     * Raw IDs depend on the installed mods, so use {@link #getClassName(int)} to resolve them.
+     * 
+     * @param block The block to get the class ID for
+     * @return Class ID in [1, getClassCount())
+     */
+    public static int getClassId(Block block) {
+        return Registries.BLOCK.getRawId(block) + 1;
+    }
+    
+    /**
+     * Gets the class ID for an entity type. Entity classes follow all block classes.
+     * 
+     * @param type The entity type to get the class ID for
+     * @return Class ID in [getFirstEntityClassId(), getClassCount())
+     */
+    public static int getEntityClassId(EntityType<?> type) {
+        return getFirstEntityClassId() + Registries.ENTITY_TYPE.getRawId(type);
+    }
+    
+    /**
+     * Gets the first class ID used for entity types.
+     */
+    public static int getFirstEntityClassId() {
+        return Registries.BLOCK.size() + 1;
+    }
+    
+    /**
+     * Gets the number of class IDs (size of per-class arrays).
+     */
+    public static int getClassCount() {
+        return getFirstEntityClassId() + Registries.ENTITY_TYPE.size();
+    }
+    
+    /**
+     * Gets the registry name for a class ID ("none" for {@link #NO_CLASS}).
+     */
+    public static String getClassName(int classId) {
+        if (classId == NO_CLASS) {
+            return "none";
+        }
+        int firstEntity = getFirstEntityClassId();
+        if (classId >= firstEntity) {
+            return Registries.ENTITY_TYPE.getId(Registries.ENTITY_TYPE.get(classId - firstEntity)).toString();
+        }
+        return Registries.BLOCK.getId(Registries.BLOCK.get(classId - 1)).toString();
+    }
+    
+    /**
+     * Gets the packed segmentation color (0xRRGGBB) for a class ID. {@link #NO_CLASS} is black.
+     */
+    public static int getClassColorPacked(int classId) {
+        if (classId == NO_CLASS) {
+            return 0;
+        }
+        int firstEntity = getFirstEntityClassId();
+        if (classId >= firstEntity) {
+            int[] rgb = getEntityColor(Registries.ENTITY_TYPE.get(classId - firstEntity));
+            return (rgb[0] << 16) | (rgb[1] << 8) | rgb[2];
+        }
+        return getBlockColorPacked(Registries.BLOCK.get(classId - 1));
+    }
+    
     /**
      * Gets the class ID for a block (for backwards compatibility).
      * 
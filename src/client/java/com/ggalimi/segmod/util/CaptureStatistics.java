@@ -0,0 +1,198 @@
+package com.ggalimi.segmod.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming class-frequency and depth-distribution statistics.
+ *
+ * Per-frame histograms are computed inline from the class map and linear depth
+ * that the capture pipeline already produces, so nothing has to re-read the
+ * saved images. Session totals are kept in primitive {@code long[]}
+ * accumulators that can be merged across runs or capture nodes.
+ *
+ * Each frame produces a compact binary index record, which the
+ * {@link FrameWriter} appends to the run's index file:
+ * <pre>
+ *   int    frameNumber
+ *   UTF    frameId
+ *   int    width, height
+ *   short  presentCount
+ *   presentCount x (int classId, int pixels)
+ *   DEPTH_BINS x int pixels
+ * </pre>
+ * so frames can be queried by class presence without decoding any image.
+ */
+public class CaptureStatistics {
+    
+    /**
+     * Number of depth histogram bins over normalized linear depth [0, 1].
+     * Sky / far plane lands in the last bin.
+     */
+    public static final int DEPTH_BINS = 64;
+    
+    // Session totals
+    private final long[] classPixels;
+    private final long[] classFrames;
+    private final long[] depthHistogram;
+    private long frames;
+    
+    // Current frame
+    private final long[] frameClassPixels;
+    private final long[] frameDepthHistogram;
+    
+    /**
+     * @param classCount Number of class IDs (see {@link BlockClassMap#getClassCount()})
+     */
+    public CaptureStatistics(int classCount) {
+        this.classPixels = new long[classCount];
+        this.classFrames = new long[classCount];
+        this.depthHistogram = new long[DEPTH_BINS];
+        this.frameClassPixels = new long[classCount];
+        this.frameDepthHistogram = new long[DEPTH_BINS];
+    }
+    
+    /**
+     * Clears the per-frame histograms.
+     */
+    public void beginFrame() {
+        Arrays.fill(frameClassPixels, 0);
+        Arrays.fill(frameDepthHistogram, 0);
+    }
+    
+    /**
+     * Adds a per-pixel class ID map to the current frame.
+     */
+    public void addClassMap(int[] classIds) {
+        for (int classId : classIds) {
+            frameClassPixels[classId]++;
+        }
+    }
+    
+    /**
+     * Adds normalized linear depth values [0, 1] to the current frame.
+     */
+    public void addLinearDepth(float[] linearDepth) {
+        for (float d : linearDepth) {
+            int bin = (int) (d * DEPTH_BINS);
+            if (bin < 0) bin = 0;
+            if (bin >= DEPTH_BINS) bin = DEPTH_BINS - 1;
+            frameDepthHistogram[bin]++;
+        }
+    }
+    
+    /**
+     * Folds the current frame into the session totals and encodes its index record.
+     *
+     * @return The record, for the index file
+     */
+    public byte[] endFrame(int frameNumber, String frameId, int width, int height) throws IOException {
+        int present = 0;
+        for (int c = 0; c < frameClassPixels.length; c++) {
+            long pixels = frameClassPixels[c];
+            if (pixels > 0) {
+                classPixels[c] += pixels;
+                classFrames[c]++;
+                present++;
+            }
+        }
+        for (int b = 0; b < DEPTH_BINS; b++) {
+            depthHistogram[b] += frameDepthHistogram[b];
+        }
+        frames++;
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 8 * present + 4 * DEPTH_BINS);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(frameNumber);
+            out.writeUTF(frameId);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeShort(present);
+            for (int c = 0; c < frameClassPixels.length; c++) {
+                if (frameClassPixels[c] > 0) {
+                    out.writeInt(c);
+                    out.writeInt((int) frameClassPixels[c]);
+                }
+            }
+            for (int b = 0; b < DEPTH_BINS; b++) {
+                out.writeInt((int) frameDepthHistogram[b]);
+            }
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * Adds another accumulator's session totals into this one.
+     * Both must have been created with the same class count.
+     */
+    public void merge(CaptureStatistics other) {
+        if (other.classPixels.length != classPixels.length) {
+            throw new IllegalArgumentException("Class count mismatch: " + other.classPixels.length + " vs " + classPixels.length);
+        }
+        for (int c = 0; c < classPixels.length; c++) {
+            classPixels[c] += other.classPixels[c];
+            classFrames[c] += other.classFrames[c];
+        }
+        for (int b = 0; b < DEPTH_BINS; b++) {
+            depthHistogram[b] += other.depthHistogram[b];
+        }
+        frames += other.frames;
+    }
+    
+    /**
+     * Scans an index file and returns the IDs of frames containing the given class.
+     * Only the index is read; no images are decoded.
+     */
+    public static List<String> findFramesWithClass(File indexFile, int classId) throws IOException {
+        List<String> frameIds = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            while (true) {
+                try {
+                    in.readInt(); // frameNumber
+                } catch (EOFException e) {
+                    break;
+                }
+                String frameId = in.readUTF();
+                in.skipBytes(8); // width, height
+                int present = in.readUnsignedShort();
+                boolean match = false;
+                for (int i = 0; i < present; i++) {
+                    if (in.readInt() == classId) {
+                        match = true;
+                    }
+                    in.skipBytes(4); // pixels
+                }
+                in.skipBytes(DEPTH_BINS * 4);
+                if (match) {
+                    frameIds.add(frameId);
+                }
+            }
+        }
+        return frameIds;
+    }
+    
+    public long[] getClassPixels() {
+        return classPixels;
+    }
+    
+    public long[] getClassFrames() {
+        return classFrames;
+    }
+    
+    public long[] getDepthHistogram() {
+        return depthHistogram;
+    }
+    
+    public long getFrames() {
+        return frames;
+    }
+}
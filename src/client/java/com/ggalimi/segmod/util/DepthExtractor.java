@@ -2,10 +2,13 @@ package com.ggalimi.segmod.util;
 
 import com.mojang.blaze3d.systems.RenderSystem;
 import net.minecraft.client.gl.Framebuffer;
+import org.joml.Matrix4f;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL30;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 
 /**
@@ -14,6 +17,114 @@ import java.nio.FloatBuffer;
  */
 public class DepthExtractor {
     
+    /**
+     * Output encodings for saved depth.
+     */
+    public enum DepthFormat {
+        /** 8-bit gamma-enhanced grayscale duplicated into RGB, plus a linear 8-bit copy (legacy). */
+        GRAYSCALE_8,
+        /** Single-channel 16-bit PNG, metric depth in millimetres (saturates at 65.535 m). */
+        MILLIMETRES_16,
+        /** Raw little-endian float32 metric depth in metres, rows top-down, no header. */
+        FLOAT32_METRES
+    }
+    
+    /**
+     * Recovers the near and far clip planes from an OpenGL perspective projection matrix.
+     * Minecraft's far plane is several times the render distance, so this is what the
+     * depth buffer was actually written with.
+     * 
+     * @param projection The projection matrix used to render the world
+     * @return {near, far} in blocks (metres)
+     */
+    public static float[] getClipPlanes(Matrix4f projection) {
+        float m22 = projection.m22();
+        float m32 = projection.m32();
+        return new float[]{m32 / (m22 - 1.0f), m32 / (m22 + 1.0f)};
+    }
+    
+    /**
+     * Converts raw depth buffer values to metric eye-space distance in metres.
+     * Sky / far-plane pixels become 0 (no depth).
+     * 
+     * @param rawDepth Raw depth buffer values [0, 1]
+     * @param near The true near clipping plane
+     * @param far The true far clipping plane
+     * @return Metric depth, same layout as the input
+     */
+    public static float[] depthToMetres(float[] rawDepth, float near, float far) {
+        float[] metres = new float[rawDepth.length];
+        float a = 2.0f * near * far;
+        float b = far + near;
+        float c = far - near;
+        for (int i = 0; i < rawDepth.length; i++) {
+            float d = rawDepth[i];
+            metres[i] = d >= 1.0f ? 0.0f : a / (b - (d * 2.0f - 1.0f) * c);
+        }
+        return metres;
+    }
+    
+    /**
+     * Packs metric depth into 16-bit millimetres, flipping rows to top-down.
+     * Values beyond 65.535 m saturate; 0 means no depth.
+     * 
+     * @param metres Metric depth (bottom-up rows, as read from OpenGL)
+     * @return Unsigned 16-bit samples stored in a short array, top-down rows
+     */
+    public static short[] metresToMillimetres16(float[] metres, int width, int height) {
+        return metresToMillimetres16(metres, width, height, true);
+    }
+    
+    /**
+     * Packs metric depth into 16-bit millimetres, top-down rows.
+     * 
+     * @param metres Metric depth
+     * @param bottomUp true if {@code metres} has bottom-up rows (CPU path), false if already top-down (GPU path)
+     * @return Unsigned 16-bit samples stored in a short array, top-down rows
+     */
+    public static short[] metresToMillimetres16(float[] metres, int width, int height, boolean bottomUp) {
+        short[] millimetres = new short[width * height];
+        for (int y = 0; y < height; y++) {
+            int src = y * width;
+            int dst = bottomUp ? (height - 1 - y) * width : src;
+            for (int x = 0; x < width; x++) {
+                int mm = Math.round(metres[src + x] * 1000.0f);
+                millimetres[dst + x] = (short) Math.min(65535, Math.max(0, mm));
+            }
+        }
+        return millimetres;
+    }
+    
+    /**
+     * Serializes metric depth as little-endian float32, flipping rows to top-down.
+     * 
+     * @param metres Metric depth (bottom-up rows, as read from OpenGL)
+     * @return width * height * 4 bytes
+     */
+    public static byte[] metresToFloat32(float[] metres, int width, int height) {
+        return metresToFloat32(metres, width, height, true);
+    }
+    
+    /**
+     * Serializes metric depth as little-endian float32, top-down rows.
+     * 
+     * @param metres Metric depth
+     * @param bottomUp true if {@code metres} has bottom-up rows (CPU path), false if already top-down (GPU path)
+     * @return width * height * 4 bytes
+     */
+    public static byte[] metresToFloat32(float[] metres, int width, int height, boolean bottomUp) {
+        ByteBuffer bytes = ByteBuffer.allocate(width * height * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        FloatBuffer floats = bytes.asFloatBuffer();
+        if (!bottomUp) {
+            floats.put(metres);
+            return bytes.array();
+        }
+        for (int y = height - 1; y >= 0; y--) {
+            floats.put(metres, y * width, width);
+        }
+        return bytes.array();
+    }
+    
     /**
      * Extracts the depth buffer from the given framebuffer and converts it to linear depth.
      * 
@@ -49,9 +160,7 @@ public class DepthExtractor {
         System.out.println("[SegMod Debug] Raw depth range: " + minDepth + " to " + maxDepth);
         
         // Convert from non-linear depth buffer values to linear depth
-        for (int i = 0; i < depthData.length; i++) {
-            depthData[i] = linearizeDepth(depthData[i], nearPlane, farPlane);
-        }
+        depthData = linearizeDepth(depthData, nearPlane, farPlane);
         
         // Debug: Check linearized depth values
         minDepth = Float.MAX_VALUE;
@@ -66,6 +175,23 @@ public class DepthExtractor {
         return depthData;
     }
     
+    /**
+     * Converts raw depth that was already read back to linear depth in [0, 1] range,
+     * without touching the framebuffer.
+     * 
+     * @param rawDepth Raw depth buffer values [0, 1]
+     * @param nearPlane The near clipping plane
+     * @param farPlane The far clipping plane
+     * @return Linear depth, same layout as the input
+     */
+    public static float[] linearizeDepth(float[] rawDepth, float nearPlane, float farPlane) {
+        float[] linearDepth = new float[rawDepth.length];
+        for (int i = 0; i < rawDepth.length; i++) {
+            linearDepth[i] = linearizeDepth(rawDepth[i], nearPlane, farPlane);
+        }
+        return linearDepth;
+    }
+    
     /**
      * Converts a non-linear depth buffer value to linear depth in [0, 1] range.
      * 
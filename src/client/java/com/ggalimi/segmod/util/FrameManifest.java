@@ -0,0 +1,151 @@
+package com.ggalimi.segmod.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only per-frame manifest with an O(1) offset index.
+ *
+ * Records are written as one JSON object per line to {@code <name>.jsonl}.
+ * The byte offset of every record is appended as a big-endian long to
+ * {@code <name>.idx}, so record N lives at the offset stored at byte N*8.
+ * The record is always written before its index entry.
+ *
+ * With per-record sync the record is also synced before its index entry is
+ * written, so a durable index entry never points at a record that was lost.
+ * Without it (the capture writer's EVERY_N and ON_CLOSE policies) both files
+ * are only synced by {@link #sync()}, records first. A crash between syncs can
+ * then leave index entries whose records never reached the disk;
+ * {@link #readRecord} reports those as missing rather than returning garbage.
+ */
+public class FrameManifest implements AutoCloseable {
+    
+    private static final Gson GSON = new Gson();
+    private static final int INDEX_ENTRY_BYTES = Long.BYTES;
+    
+    private final File recordFile;
+    private final File indexFile;
+    private final FileChannel records;
+    private final FileChannel index;
+    private final boolean sync;
+    
+    /**
+     * Opens (or creates) a manifest for appending.
+     *
+     * @param directory Directory holding the manifest files
+     * @param name Base file name without extension
+     * @param sync Whether to fsync after every record
+     */
+    public FrameManifest(File directory, String name, boolean sync) throws IOException {
+        this.recordFile = new File(directory, name + ".jsonl");
+        this.indexFile = new File(directory, name + ".idx");
+        this.records = FileChannel.open(recordFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.index = FileChannel.open(indexFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.sync = sync;
+    }
+    
+    /**
+     * Appends a record.
+     *
+     * @return The record number (position in the index)
+     */
+    public synchronized long append(JsonObject record) throws IOException {
+        byte[] line = (GSON.toJson(record) + "\n").getBytes(StandardCharsets.UTF_8);
+        long offset = records.size();
+        
+        writeFully(records, ByteBuffer.wrap(line));
+        if (sync) {
+            records.force(false);
+        }
+        
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+        entry.putLong(offset).flip();
+        writeFully(index, entry);
+        if (sync) {
+            index.force(false);
+        }
+        
+        return index.size() / INDEX_ENTRY_BYTES - 1;
+    }
+    
+    /**
+     * Syncs records appended so far, records before index, for manifests opened without per-record sync.
+     */
+    public synchronized void sync() throws IOException {
+        records.force(false);
+        index.force(false);
+    }
+    
+    /**
+     * Number of complete records.
+     */
+    public synchronized long size() throws IOException {
+        return index.size() / INDEX_ENTRY_BYTES;
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        records.close();
+        index.close();
+    }
+    
+    public File getRecordFile() {
+        return recordFile;
+    }
+    
+    public File getIndexFile() {
+        return indexFile;
+    }
+    
+    /**
+     * Reads record N directly via the index, without scanning the manifest.
+     *
+     * @param directory Directory holding the manifest files
+     * @param name Base file name without extension
+     * @param recordNumber Zero-based record number
+     * @return The parsed record
+     */
+    public static JsonObject readRecord(File directory, String name, long recordNumber) throws IOException {
+        try (RandomAccessFile idx = new RandomAccessFile(new File(directory, name + ".idx"), "r");
+             RandomAccessFile jsonl = new RandomAccessFile(new File(directory, name + ".jsonl"), "r")) {
+            long count = idx.length() / INDEX_ENTRY_BYTES;
+            if (recordNumber < 0 || recordNumber >= count) {
+                throw new IndexOutOfBoundsException("Record " + recordNumber + " of " + count);
+            }
+            
+            idx.seek(recordNumber * INDEX_ENTRY_BYTES);
+            long start = idx.readLong();
+            long end = recordNumber + 1 < count ? idx.readLong() : jsonl.length();
+            if (start > end || end > jsonl.length()) {
+                // Index entry survived a crash that its (unsynced) record did not
+                throw new IOException("Record " + recordNumber + " is indexed but missing from " + name + ".jsonl");
+            }
+            
+            byte[] line = new byte[(int) (end - start)];
+            jsonl.seek(start);
+            jsonl.readFully(line);
+            // Stop at the first newline in case an unindexed record follows (crash mid-append)
+            String text = new String(line, StandardCharsets.UTF_8);
+            int newline = text.indexOf('\n');
+            if (newline >= 0) {
+                text = text.substring(0, newline);
+            }
+            return JsonParser.parseString(text).getAsJsonObject();
+        }
+    }
+    
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
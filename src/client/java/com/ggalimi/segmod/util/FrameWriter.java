@@ -0,0 +1,520 @@
+package com.ggalimi.segmod.util;
+
+import com.google.gson.JsonObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Dedicated writer stage for encoded frame outputs.
+ *
+ * The capture thread hands over each frame's encoded outputs and manifest
+ * record; a writer thread drains whatever frames are queued, coalesces them
+ * into one large sequential write, applies the fsync policy and only then
+ * appends the frames' records to the {@link FrameManifest}. A record therefore
+ * never points at data that hasn't been written (or, when the policy syncs on
+ * that frame, that isn't durable). A frame may also carry an index entry
+ * (its {@link CaptureStatistics} record), appended to one index file that is
+ * kept open and synced along with the data.
+ *
+ * Layouts:
+ * <ul>
+ *   <li>{@link Layout#FILES}: one file per output, as before, written off the capture thread.
+ *       Each file is still its own write; only the packed layout coalesces writes.</li>
+ *   <li>{@link Layout#PACKED}: outputs appended to fixed-size segment files
+ *       ({@code run_<id>_data_NNNN.bin}); the manifest records each output's segment, offset and length.
+ *       A segment's size is only reserved, as a sparse file: no disk blocks are allocated up front.
+ *       Supports direct I/O, bypassing the page cache, with block-aligned writes. Segments are
+ *       created new and never truncated, so a writer reopened for the same run continues the
+ *       numbering after the existing segments.</li>
+ * </ul>
+ */
+public class FrameWriter implements AutoCloseable {
+    
+    public enum Layout {
+        FILES,
+        PACKED
+    }
+    
+    public enum SyncPolicy {
+        /** fsync data (then the manifest) before each frame's record is appended. */
+        PER_FRAME,
+        /** fsync every N frames. */
+        EVERY_N,
+        /** fsync only when the writer is closed. */
+        ON_CLOSE
+    }
+    
+    // Frames waiting to be written; the capture thread blocks when the disk can't keep up
+    private static final int QUEUE_CAPACITY = 64;
+    // Staging buffer a batch is coalesced into (grown for larger frames)
+    private static final int STAGING_BYTES = 16 << 20;
+    private static final int LATENCY_WINDOW = 1024;
+    // FILES layout: files kept open until the next sync; past this, they are reopened to sync
+    private static final int MAX_OPEN_FILES = 256;
+    
+    /**
+     * One encoded output of a frame.
+     */
+    public static class Output {
+        final String key;
+        final String fileName;
+        final byte[] bytes;
+        
+        public Output(String key, String fileName, byte[] bytes) {
+            this.key = key;
+            this.fileName = fileName;
+            this.bytes = bytes;
+        }
+    }
+    
+    private static class Frame {
+        final JsonObject record;
+        final JsonObject outputs;
+        final List<Output> files;
+        final byte[] index;
+        final long submitted = System.nanoTime();
+        
+        Frame(JsonObject record, JsonObject outputs, List<Output> files, byte[] index) {
+            this.record = record;
+            this.outputs = outputs;
+            this.files = files;
+            this.index = index;
+        }
+    }
+    
+    private static final Frame CLOSE = new Frame(null, null, List.of(), null);
+    
+    private final File directory;
+    private final String segmentPrefix;
+    private final FrameManifest manifest;
+    private final Layout layout;
+    private final SyncPolicy syncPolicy;
+    private final int syncInterval;
+    private final boolean directIo;
+    private final long segmentBytes;
+    private final File indexFile;
+    private final BlockingQueue<Frame> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread thread;
+    private volatile IOException failure;
+    
+    // Writer thread state
+    private ByteBuffer staging;
+    private int alignment = 1;
+    private FileChannel segment;
+    private String segmentName;
+    private int segmentIndex = 0;
+    private long segmentPosition = 0;
+    private long segmentLength = 0;
+    private FileChannel index; // Opened on the first index entry, kept open until close
+    private int framesSinceSync = 0;
+    private final List<FileChannel> unsyncedChannels = new ArrayList<>();
+    private final List<Path> unsyncedFiles = new ArrayList<>();
+    
+    // Statistics, guarded by this
+    private long framesWritten = 0;
+    private long bytesWritten = 0;
+    private long writeNanos = 0;
+    private long syncNanos = 0;
+    private long syncs = 0;
+    private final long startNanos = System.nanoTime();
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private int latencyCount = 0;
+    private long maxLatency = 0; // Whole session, not just the window
+    private int maxQueueDepth = 0;
+    
+    /**
+     * Starts a writer.
+     *
+     * @param directory Output directory
+     * @param segmentPrefix Prefix of packed segment files, e.g. {@code run_<id>_data}
+     * @param manifest Manifest the frame records are appended to once their data is written
+     * @param layout One file per output, or packed segments
+     * @param syncPolicy When to fsync
+     * @param syncInterval Frames between fsyncs for {@link SyncPolicy#EVERY_N}
+     * @param directIo Open packed segments with O_DIRECT (PACKED layout only)
+     * @param segmentBytes Size packed segments are created with (sparse, not allocated)
+     * @param indexFile File index entries are appended to
+     */
+    public FrameWriter(File directory, String segmentPrefix, FrameManifest manifest, Layout layout,
+                       SyncPolicy syncPolicy, int syncInterval, boolean directIo, long segmentBytes,
+                       File indexFile) throws IOException {
+        this.directory = directory;
+        this.segmentPrefix = segmentPrefix;
+        this.manifest = manifest;
+        this.layout = layout;
+        this.syncPolicy = syncPolicy;
+        this.syncInterval = Math.max(1, syncInterval);
+        this.directIo = directIo && layout == Layout.PACKED;
+        this.segmentBytes = segmentBytes;
+        this.indexFile = indexFile;
+        if (this.directIo) {
+            // Direct I/O needs buffer address, file offset and length aligned to the filesystem block
+            alignment = (int) Math.max(512, Files.getFileStore(directory.toPath()).getBlockSize());
+        }
+        this.thread = new Thread(this::writeLoop, "SegMod Frame Writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+    
+    /**
+     * Queues a frame. Blocks if the writer is {@link #QUEUE_CAPACITY} frames behind.
+     *
+     * @param record Manifest record, appended once the outputs are written
+     * @param outputs The record's outputs object; filled in with each output's file, offset, length and CRC32
+     * @param files Encoded outputs
+     * @param index Entry for the index file, or null for none
+     */
+    public void submit(JsonObject record, JsonObject outputs, List<Output> files, byte[] index) throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        try {
+            enqueue(new Frame(record, outputs, files, index));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while queuing frame", e);
+        }
+        synchronized (this) {
+            maxQueueDepth = Math.max(maxQueueDepth, queue.size());
+        }
+    }
+    
+    /**
+     * Writes everything still queued, syncs, trims the last segment and stops the writer thread.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            enqueue(CLOSE);
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // Writer already failed; rethrown below
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+    
+    /**
+     * Waits for queue space, giving up if the writer thread has failed and will never drain it.
+     */
+    private void enqueue(Frame frame) throws IOException, InterruptedException {
+        while (!queue.offer(frame, 100, TimeUnit.MILLISECONDS)) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+    
+    private void writeLoop() {
+        List<Frame> batch = new ArrayList<>();
+        try {
+            boolean closing = false;
+            while (!closing) {
+                // Coalesce every frame that is already waiting into one batch
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                closing = batch.remove(CLOSE);
+                if (!batch.isEmpty()) {
+                    writeBatch(batch);
+                }
+                batch.clear();
+            }
+            // Trim before the final sync so the segment's length is durable too, then make the
+            // records durable after the data they point at
+            if (segment != null) {
+                segment.truncate(segmentPosition);
+            }
+            sync();
+            manifest.sync();
+            closeSegment();
+            if (index != null) {
+                index.close();
+            }
+        } catch (IOException e) {
+            failure = e;
+            System.out.println("[SegMod] Frame writer failed: " + e.getMessage());
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void writeBatch(List<Frame> batch) throws IOException {
+        long start = System.nanoTime();
+        long bytes = layout == Layout.PACKED ? writePacked(batch) : writeFiles(batch);
+        bytes += writeIndex(batch);
+        long written = System.nanoTime();
+        
+        framesSinceSync += batch.size();
+        boolean synced = syncPolicy == SyncPolicy.PER_FRAME
+            || (syncPolicy == SyncPolicy.EVERY_N && framesSinceSync >= syncInterval);
+        if (synced) {
+            sync();
+        }
+        long end = System.nanoTime();
+        
+        // Records only after their data is written (and synced, if this batch synced)
+        for (Frame frame : batch) {
+            manifest.append(frame.record);
+        }
+        if (synced) {
+            manifest.sync();
+        }
+        
+        long now = System.nanoTime();
+        synchronized (this) {
+            framesWritten += batch.size();
+            bytesWritten += bytes;
+            writeNanos += written - start;
+            if (synced) {
+                syncNanos += end - written;
+                syncs++;
+            }
+            for (Frame frame : batch) {
+                long latency = now - frame.submitted;
+                latencies[latencyCount++ % LATENCY_WINDOW] = latency;
+                maxLatency = Math.max(maxLatency, latency);
+            }
+        }
+        if ((framesWritten - batch.size()) / 100 != framesWritten / 100) {
+            System.out.println("[SegMod] Writer: " + getStats());
+        }
+    }
+    
+    /**
+     * Writes every output of the batch to its own file.
+     */
+    private long writeFiles(List<Frame> batch) throws IOException {
+        long bytes = 0;
+        for (Frame frame : batch) {
+            for (Output output : frame.files) {
+                Path path = new File(directory, output.fileName).toPath();
+                FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                try {
+                    writeFully(channel, ByteBuffer.wrap(output.bytes), 0);
+                } catch (IOException e) {
+                    channel.close();
+                    throw e;
+                }
+                // Keep it open for the next sync rather than opening it a second time
+                if (unsyncedChannels.size() < MAX_OPEN_FILES) {
+                    unsyncedChannels.add(channel);
+                } else {
+                    channel.close();
+                    unsyncedFiles.add(path);
+                }
+                frame.outputs.add(output.key, describe(output.fileName, 0, output));
+                bytes += output.bytes.length;
+            }
+        }
+        return bytes;
+    }
+    
+    /**
+     * Appends the batch's index entries to the index file.
+     */
+    private long writeIndex(List<Frame> batch) throws IOException {
+        long bytes = 0;
+        for (Frame frame : batch) {
+            if (frame.index == null) {
+                continue;
+            }
+            if (index == null) {
+                index = FileChannel.open(indexFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(frame.index);
+            while (buffer.hasRemaining()) {
+                index.write(buffer);
+            }
+            bytes += frame.index.length;
+        }
+        return bytes;
+    }
+    
+    /**
+     * Copies the batch's outputs into the staging buffer and writes it to the
+     * current segment in a single sequential write.
+     */
+    private long writePacked(List<Frame> batch) throws IOException {
+        long total = 0;
+        for (Frame frame : batch) {
+            for (Output output : frame.files) {
+                total += output.bytes.length;
+            }
+        }
+        long aligned = align(total);
+        if (segment == null || segmentPosition + aligned > segmentLength) {
+            openSegment(aligned);
+        }
+        ensureStaging(aligned);
+        
+        staging.clear();
+        for (Frame frame : batch) {
+            for (Output output : frame.files) {
+                frame.outputs.add(output.key, describe(segmentName, segmentPosition + staging.position(), output));
+                staging.put(output.bytes);
+            }
+        }
+        // Direct I/O needs block-multiple lengths; readers skip the padding via the recorded offsets
+        while (staging.position() < aligned) {
+            staging.put((byte) 0);
+        }
+        staging.flip();
+        writeFully(segment, staging, segmentPosition);
+        segmentPosition += aligned;
+        return aligned;
+    }
+    
+    /**
+     * Finishes the current segment and opens the next one, sized (sparsely) to the segment size.
+     * Numbers already taken (by an earlier writer for the same run) are skipped, and the
+     * segment is created new, so existing data that records point at is never overwritten.
+     */
+    private void openSegment(long minBytes) throws IOException {
+        sync();
+        closeSegment();
+        
+        Path path;
+        do {
+            segmentName = String.format("%s_%04d.bin", segmentPrefix, segmentIndex++);
+            path = new File(directory, segmentName).toPath();
+        } while (Files.exists(path));
+        List<OpenOption> options = new ArrayList<>(Arrays.asList(
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+        if (directIo) {
+            options.add(com.sun.nio.file.ExtendedOpenOption.DIRECT);
+        }
+        segment = FileChannel.open(path, options.toArray(new OpenOption[0]));
+        segmentPosition = 0;
+        // Reserves the size only: setLength makes a sparse file and allocates no blocks (Java has no
+        // fallocate), but appends within it then need no file size update
+        segmentLength = Math.max(segmentBytes, align(minBytes));
+        try (java.io.RandomAccessFile file = new java.io.RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(segmentLength);
+        }
+    }
+    
+    /**
+     * Trims the current segment to the bytes actually used and closes it.
+     */
+    private void closeSegment() throws IOException {
+        if (segment == null) {
+            return;
+        }
+        segment.truncate(segmentPosition);
+        segment.close();
+        segment = null;
+    }
+    
+    /**
+     * Makes everything written so far durable.
+     */
+    private void sync() throws IOException {
+        if (segment != null) {
+            segment.force(false);
+        }
+        if (index != null) {
+            index.force(false);
+        }
+        for (FileChannel channel : unsyncedChannels) {
+            channel.force(false);
+            channel.close();
+        }
+        unsyncedChannels.clear();
+        for (Path path : unsyncedFiles) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.force(false);
+            }
+        }
+        unsyncedFiles.clear();
+        framesSinceSync = 0;
+    }
+    
+    private void ensureStaging(long bytes) {
+        if (staging == null || staging.capacity() < bytes) {
+            int capacity = (int) Math.max(STAGING_BYTES, bytes);
+            // Over-allocate so the buffer can start on an alignment boundary
+            staging = ByteBuffer.allocateDirect(capacity + alignment).alignedSlice(alignment);
+        }
+    }
+    
+    private long align(long bytes) {
+        return (bytes + alignment - 1) / alignment * alignment;
+    }
+    
+    private static JsonObject describe(String file, long offset, Output output) {
+        CRC32 crc = new CRC32();
+        crc.update(output.bytes);
+        JsonObject json = new JsonObject();
+        json.addProperty("file", file);
+        json.addProperty("offset", offset);
+        json.addProperty("length", (long) output.bytes.length);
+        json.addProperty("crc32", crc.getValue());
+        if (!file.equals(output.fileName)) {
+            json.addProperty("name", output.fileName);
+        }
+        return json;
+    }
+    
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+    
+    /**
+     * Throughput and latency so far. Latency is submit-to-record-appended; the percentiles
+     * cover the last {@value #LATENCY_WINDOW} frames, the maximum the whole session.
+     */
+    public synchronized JsonObject getStats() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        double megabytes = bytesWritten / (1024.0 * 1024.0);
+        
+        int count = Math.min(latencyCount, LATENCY_WINDOW);
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        
+        JsonObject json = new JsonObject();
+        json.addProperty("layout", layout.name());
+        json.addProperty("sync_policy", syncPolicy.name());
+        json.addProperty("sync_interval", syncInterval);
+        json.addProperty("direct_io", directIo);
+        json.addProperty("frames", framesWritten);
+        json.addProperty("bytes", bytesWritten);
+        json.addProperty("syncs", syncs);
+        json.addProperty("mb_per_s", seconds > 0 ? megabytes / seconds : 0.0);
+        json.addProperty("write_mb_per_s", writeNanos > 0 ? megabytes / (writeNanos / 1e9) : 0.0);
+        json.addProperty("sync_ms_total", syncNanos / 1e6);
+        json.addProperty("latency_p50_ms", percentile(sorted, 0.50) / 1e6);
+        json.addProperty("latency_p99_ms", percentile(sorted, 0.99) / 1e6);
+        json.addProperty("latency_max_ms", maxLatency / 1e6);
+        json.addProperty("max_queue_depth", maxQueueDepth);
+        return json;
+    }
+    
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0.0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.floor(p * sorted.length))];
+    }
+}
@@ -0,0 +1,118 @@
+package com.ggalimi.segmod.util;
+
+/**
+ * Derives view-space surface normals and a depth-discontinuity edge mask from
+ * metric depth in a single pass over the depth buffer. No extra readback is
+ * needed; it runs on the depth already read for the depth output.
+ *
+ * Normals are in view space (+X right, +Y up, +Z towards the camera) and are
+ * encoded as RGB = (n * 0.5 + 0.5) * 255. Sky pixels get a zero normal (black).
+ */
+public class NormalEdgeExtractor {
+    
+    /**
+     * Computes normals and edges.
+     *
+     * @param metres Metric view depth, bottom-up rows as read from OpenGL, 0 = sky
+     * @param width Width of the depth buffer
+     * @param height Height of the depth buffer
+     * @param tanHalfFovX tan of half the horizontal FOV (1 / projection.m00)
+     * @param tanHalfFovY tan of half the vertical FOV (1 / projection.m11)
+     * @param edgeThreshold Relative depth jump (fraction of depth) that marks an edge, e.g. 0.05
+     * @param normalsOut Packed 0xRRGGBB normals, top-down rows, width * height
+     * @param edgesOut Edge mask (255 = edge), top-down rows, width * height
+     */
+    public static void compute(float[] metres, int width, int height, float tanHalfFovX, float tanHalfFovY,
+                               float edgeThreshold, int[] normalsOut, byte[] edgesOut) {
+        compute(metres, true, width, height, tanHalfFovX, tanHalfFovY, edgeThreshold, normalsOut, edgesOut);
+    }
+    
+    /**
+     * Computes normals and edges from depth in either row order.
+     *
+     * @param metres Metric view depth, 0 = sky
+     * @param bottomUp true if {@code metres} has bottom-up rows (CPU readback), false if top-down (GPU linearization)
+     * @see #compute(float[], int, int, float, float, float, int[], byte[])
+     */
+    public static void compute(float[] metres, boolean bottomUp, int width, int height, float tanHalfFovX, float tanHalfFovY,
+                               float edgeThreshold, int[] normalsOut, byte[] edgesOut) {
+        // Per-column / per-row view-ray slopes, so a view position is just slope * depth
+        float[] slopeX = new float[width];
+        float[] slopeY = new float[height];
+        for (int x = 0; x < width; x++) {
+            slopeX[x] = ((2.0f * x + 1.0f) / width - 1.0f) * tanHalfFovX;
+        }
+        // Memory rows run downwards in view space when top-down
+        float rowDirection = bottomUp ? 1.0f : -1.0f;
+        for (int y = 0; y < height; y++) {
+            slopeY[y] = ((2.0f * y + 1.0f) / height - 1.0f) * tanHalfFovY * rowDirection;
+        }
+        
+        // Central differences span two pixels
+        float edgeLimit = edgeThreshold * 2.0f;
+        // Differencing against the next memory row flips dPdy (and so the normal) for top-down rows
+        float normalSign = 127.5f * rowDirection;
+        
+        for (int y = 1; y < height - 1; y++) {
+            int row = y * width;
+            int up = row + width;
+            int down = row - width;
+            int out = bottomUp ? (height - 1 - y) * width : row;
+            float sy = slopeY[y];
+            float syUp = slopeY[y + 1];
+            float syDown = slopeY[y - 1];
+            
+            for (int x = 1; x < width - 1; x++) {
+                float z = metres[row + x];
+                float zl = metres[row + x - 1];
+                float zr = metres[row + x + 1];
+                float zd = metres[down + x];
+                float zu = metres[up + x];
+                
+                // Central differences of view positions P = (sx * z, sy * z, -z)
+                float dzx = zr - zl;
+                float dzy = zu - zd;
+                float ax = slopeX[x + 1] * zr - slopeX[x - 1] * zl;
+                float ay = sy * dzx;
+                float az = -dzx;
+                float bx = slopeX[x] * dzy;
+                float by = syUp * zu - syDown * zd;
+                float bz = -dzy;
+                
+                // n = dPdx x dPdy
+                float nx = ay * bz - az * by;
+                float ny = az * bx - ax * bz;
+                float nz = ax * by - ay * bx;
+                float len = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+                
+                // Zero normal for sky, without a branch
+                float valid = Math.min(z * 1.0e30f, 1.0f);
+                float scale = valid * normalSign / (len + 1.0e-30f);
+                float bias = 127.5f * valid;
+                int r = (int) (nx * scale + bias);
+                int g = (int) (ny * scale + bias);
+                int b = (int) (nz * scale + bias);
+                normalsOut[out + x] = (r << 16) | (g << 8) | b;
+                
+                // Edge where either neighbour pair jumps by more than the threshold relative to depth;
+                // the sign bit of (limit - jump) is set exactly when the jump exceeds the limit
+                float jump = Math.max(Math.abs(dzx), Math.abs(dzy));
+                int exceeds = Float.floatToRawIntBits(edgeLimit * z - jump) >>> 31;
+                edgesOut[out + x] = (byte) -exceeds;
+            }
+            
+            // Borders repeat their inner neighbour
+            normalsOut[out] = normalsOut[out + 1];
+            normalsOut[out + width - 1] = normalsOut[out + width - 2];
+            edgesOut[out] = edgesOut[out + 1];
+            edgesOut[out + width - 1] = edgesOut[out + width - 2];
+        }
+        
+        if (height > 2) {
+            System.arraycopy(normalsOut, width, normalsOut, 0, width);
+            System.arraycopy(normalsOut, (height - 2) * width, normalsOut, (height - 1) * width, width);
+            System.arraycopy(edgesOut, width, edgesOut, 0, width);
+            System.arraycopy(edgesOut, (height - 2) * width, edgesOut, (height - 1) * width, width);
+        }
+    }
+}
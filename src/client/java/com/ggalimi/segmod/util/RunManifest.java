@@ -0,0 +1,79 @@
+package com.ggalimi.segmod.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Small JSON summary describing one capture run (one game session).
+ * Capture stages contribute named sections (e.g. "dedup") and the file is
+ * rewritten in place after each capture, so it is always up to date even if
+ * the game is killed.
+ */
+public class RunManifest {
+    
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    
+    private final String runId;
+    private final File file;
+    private final JsonObject root = new JsonObject();
+    
+    /**
+     * Creates a manifest for a run starting now.
+     *
+     * @param outputDirectory Directory where the manifest is written
+     */
+    public RunManifest(File outputDirectory) {
+        Date start = new Date();
+        this.runId = new SimpleDateFormat("yyyy-MM-dd_HH.mm.ss").format(start);
+        this.file = new File(outputDirectory, "run_" + runId + ".json");
+        root.addProperty("run_id", runId);
+        root.addProperty("started_at", start.getTime());
+    }
+    
+    /**
+     * Sets (or replaces) a top-level property.
+     */
+    public void set(String key, long value) {
+        root.addProperty(key, value);
+    }
+    
+    /**
+     * Sets (or replaces) a named section.
+     */
+    public void setSection(String name, JsonObject section) {
+        root.add(name, section);
+    }
+    
+    /**
+     * Writes the manifest atomically (temp file + rename).
+     */
+    public void write() throws IOException {
+        root.addProperty("updated_at", System.currentTimeMillis());
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+            GSON.toJson(root, writer);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /**
+     * Gets the run ID (start timestamp), used to name other per-run files.
+     */
+    public String getRunId() {
+        return runId;
+    }
+    
+    public File getFile() {
+        return file;
+    }
+}
@@ -1,5 +1,6 @@
 package com.ggalimi.segmod;
 
+import com.ggalimi.segmod.voxel.VoxelExporter;
 import net.fabricmc.api.ModInitializer;
 
 import org.slf4j.Logger;
@@ -20,5 +21,8 @@ public class SegmentationModCV implements ModInitializer {
 		// Proceed with mild caution.
 
 		LOGGER.info("Hello Fabric world!");
+
+		// Semantic voxel export runs on the (integrated) server
+		VoxelExporter.register();
 	}
 }
\ No newline at end of file
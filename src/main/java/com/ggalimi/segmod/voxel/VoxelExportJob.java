@@ -0,0 +1,272 @@
+package com.ggalimi.segmod.voxel;
+
+import com.ggalimi.segmod.SegmentationModCV;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.collection.PackedIntegerArray;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.PalettedContainer;
+import net.minecraft.world.chunk.ReadableContainer;
+import net.minecraft.world.chunk.WorldChunk;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * One voxel export: snapshots chunks on the server thread and encodes them on
+ * its own worker thread.
+ *
+ * File format (the whole file is a deflate stream; integers big-endian):
+ * <pre>
+ *   8 bytes  "SEGVOX01"
+ *   UTF      dimension ID
+ *   int x3   center block position
+ *   int      radius in chunks
+ *   int      bottom section Y (section coordinate of the lowest section)
+ *   int      sections per chunk
+ *   repeated for every loaded chunk:
+ *     byte 1, int chunkX, int chunkZ, then per section (bottom to top):
+ *       varint paletteSize        0 = empty (all air)
+ *       varint[paletteSize]       class IDs
+ *       if paletteSize > 1: (varint runLength, varint paletteIndex) pairs covering
+ *                           4096 voxels in index order (y << 8 | z << 4 | x)
+ *   byte 0   end of file
+ * </pre>
+ * Unloaded chunks are left out.
+ */
+public class VoxelExportJob {
+    
+    private static final int SECTION_VOLUME = 16 * 16 * 16;
+    // Snapshots waiting for the worker; bounds memory when encoding falls behind
+    private static final int QUEUE_CAPACITY = 256;
+    
+    /**
+     * Copied block state containers of one chunk (null for empty sections).
+     */
+    private record ChunkSnapshot(int chunkX, int chunkZ, PalettedContainer<BlockState>[] sections) {
+    }
+    
+    private static final ChunkSnapshot END = new ChunkSnapshot(0, 0, null);
+    
+    private final ServerWorld world;
+    private final BlockPos center;
+    private final int radius;
+    private final File output;
+    private final int[] stateToClass;
+    private final BlockingQueue<ChunkSnapshot> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread worker;
+    private final long startTime = System.nanoTime();
+    
+    // Server thread state
+    private int nextChunk = 0;
+    private boolean endQueued = false;
+    private int chunksSkipped = 0;
+    
+    // Worker state
+    private volatile boolean cancelled = false;
+    private long chunksWritten = 0;
+    private long sectionsWritten = 0;
+    
+    VoxelExportJob(ServerWorld world, BlockPos center, int radiusChunks, File output, int[] stateToClass) {
+        this.world = world;
+        this.center = center;
+        this.radius = Math.max(0, radiusChunks);
+        this.output = output;
+        this.stateToClass = stateToClass;
+        this.worker = new Thread(this::encodeLoop, "SegMod Voxel Export");
+        this.worker.setDaemon(true);
+    }
+    
+    void start() {
+        worker.start();
+    }
+    
+    void cancel() {
+        cancelled = true;
+        worker.interrupt();
+    }
+    
+    /**
+     * Snapshots up to {@code budget} chunks. Runs on the server thread.
+     *
+     * @return false once every chunk has been handed to the worker
+     */
+    boolean snapshot(int budget) {
+        int side = 2 * radius + 1;
+        int total = side * side;
+        int centerX = center.getX() >> 4;
+        int centerZ = center.getZ() >> 4;
+        
+        while (budget > 0 && nextChunk < total && queue.remainingCapacity() > 0) {
+            int chunkX = centerX - radius + nextChunk % side;
+            int chunkZ = centerZ - radius + nextChunk / side;
+            nextChunk++;
+            
+            // Only chunks that are already loaded; never load or generate for an export
+            WorldChunk chunk = world.getChunkManager().getWorldChunk(chunkX, chunkZ, false);
+            if (chunk == null) {
+                chunksSkipped++;
+                continue;
+            }
+            ChunkSection[] sections = chunk.getSectionArray();
+            @SuppressWarnings("unchecked")
+            PalettedContainer<BlockState>[] copies = new PalettedContainer[sections.length];
+            for (int i = 0; i < sections.length; i++) {
+                copies[i] = sections[i].isEmpty() ? null : sections[i].getBlockStateContainer().copy();
+            }
+            queue.add(new ChunkSnapshot(chunkX, chunkZ, copies));
+            budget--;
+        }
+        
+        if (nextChunk >= total && !endQueued) {
+            endQueued = queue.offer(END);
+        }
+        return !endQueued;
+    }
+    
+    private void encodeLoop() {
+        File temp = new File(output.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)), new Deflater(Deflater.BEST_SPEED), 1 << 16))) {
+            writeHeader(out);
+            
+            int[] classes = new int[SECTION_VOLUME];
+            while (true) {
+                ChunkSnapshot snapshot = queue.take();
+                if (snapshot == END) {
+                    break;
+                }
+                out.writeByte(1);
+                out.writeInt(snapshot.chunkX());
+                out.writeInt(snapshot.chunkZ());
+                for (PalettedContainer<BlockState> section : snapshot.sections()) {
+                    writeSection(out, section, classes);
+                }
+                chunksWritten++;
+            }
+            out.writeByte(0);
+        } catch (InterruptedException e) {
+            temp.delete();
+            return;
+        } catch (IOException e) {
+            SegmentationModCV.LOGGER.error("Voxel export to {} failed", output, e);
+            temp.delete();
+            return;
+        }
+        
+        try {
+            Files.move(temp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            SegmentationModCV.LOGGER.error("Could not finalize voxel export {}", output, e);
+            return;
+        }
+        SegmentationModCV.LOGGER.info("Voxel export {}: {} chunks, {} sections, {} unloaded chunks skipped, {} KB in {} ms",
+            output.getName(), chunksWritten, sectionsWritten, chunksSkipped, output.length() / 1024,
+            (System.nanoTime() - startTime) / 1_000_000);
+    }
+    
+    private void writeHeader(DataOutputStream out) throws IOException {
+        out.write("SEGVOX01".getBytes(StandardCharsets.US_ASCII));
+        out.writeUTF(world.getRegistryKey().getValue().toString());
+        out.writeInt(center.getX());
+        out.writeInt(center.getY());
+        out.writeInt(center.getZ());
+        out.writeInt(radius);
+        out.writeInt(world.getBottomSectionCoord());
+        out.writeInt(world.countVerticalSections());
+    }
+    
+    /**
+     * Converts one section snapshot to class IDs and writes it palette+RLE encoded.
+     * Works on the serialized palette and packed indices, never on individual block lookups.
+     */
+    private void writeSection(DataOutputStream out, PalettedContainer<BlockState> section, int[] classes) throws IOException {
+        if (section == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        ReadableContainer.Serialized<BlockState> serialized =
+            section.serialize(Block.STATE_IDS, PalettedContainer.PaletteProvider.BLOCK_STATE);
+        List<BlockState> states = serialized.paletteEntries();
+        
+        // State palette -> class palette (distinct states of one block share a class)
+        int[] stateClass = new int[states.size()];
+        for (int i = 0; i < stateClass.length; i++) {
+            stateClass[i] = stateToClass[Block.STATE_IDS.getRawId(states.get(i))];
+        }
+        int[] classPalette = new int[stateClass.length];
+        int[] stateToPaletteIndex = new int[stateClass.length];
+        int paletteSize = 0;
+        for (int i = 0; i < stateClass.length; i++) {
+            int index = 0;
+            while (index < paletteSize && classPalette[index] != stateClass[i]) {
+                index++;
+            }
+            if (index == paletteSize) {
+                classPalette[paletteSize++] = stateClass[i];
+            }
+            stateToPaletteIndex[i] = index;
+        }
+        
+        if (paletteSize == 1 && classPalette[0] == 0) {
+            writeVarInt(out, 0); // Only air
+            return;
+        }
+        writeVarInt(out, paletteSize);
+        for (int i = 0; i < paletteSize; i++) {
+            writeVarInt(out, classPalette[i]);
+        }
+        sectionsWritten++;
+        if (paletteSize == 1 || serialized.storage().isEmpty()) {
+            return;
+        }
+        
+        // Unpack the state palette indices with the same bit width serialize() packed them with
+        long[] packed = serialized.storage().get().toArray();
+        int bits = PalettedContainer.PaletteProvider.BLOCK_STATE.getBits(Block.STATE_IDS, states.size());
+        PackedIntegerArray indices = new PackedIntegerArray(bits, SECTION_VOLUME, packed);
+        for (int i = 0; i < SECTION_VOLUME; i++) {
+            classes[i] = stateToPaletteIndex[indices.get(i)];
+        }
+        
+        int run = 1;
+        for (int i = 1; i <= SECTION_VOLUME; i++) {
+            if (i < SECTION_VOLUME && classes[i] == classes[i - 1]) {
+                run++;
+                continue;
+            }
+            writeVarInt(out, run);
+            writeVarInt(out, classes[i - 1]);
+            run = 1;
+        }
+    }
+    
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+    
+    public File getOutput() {
+        return output;
+    }
+    
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
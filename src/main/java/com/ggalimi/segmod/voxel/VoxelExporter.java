@@ -0,0 +1,101 @@
+package com.ggalimi.segmod.voxel;
+
+import com.ggalimi.segmod.SegmentationModCV;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.registry.Registries;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.BlockPos;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Server-side export of 3D semantic voxel volumes around a position.
+ *
+ * Loaded chunk sections are snapshotted on the server thread a few chunks per
+ * tick (a copy of each section's block state palette and packed storage), then
+ * a background thread converts them to class IDs through a precomputed
+ * state-to-class table and streams them out palette+RLE encoded and deflated.
+ * Neither side looks up individual blocks, and the tick loop only pays for the
+ * section copies.
+ *
+ * Class IDs match the client's segmentation classes (block registry raw ID + 1),
+ * except that air is 0 (empty).
+ */
+public class VoxelExporter {
+    
+    // Chunks snapshotted per server tick, across all jobs
+    private static int chunksPerTick = 64;
+    
+    private static final List<VoxelExportJob> jobs = new ArrayList<>();
+    private static int[] stateToClass;
+    
+    /**
+     * Hooks the exporter into the server tick loop. Called from the main initializer.
+     */
+    public static void register() {
+        ServerTickEvents.END_SERVER_TICK.register(VoxelExporter::tick);
+        ServerLifecycleEvents.SERVER_STOPPING.register(server -> cancelAll());
+    }
+    
+    /**
+     * Starts exporting the loaded chunks within {@code radiusChunks} of {@code center}.
+     * Must be called on the server thread; returns immediately.
+     *
+     * @param world World to export
+     * @param center Center of the volume
+     * @param radiusChunks Half-size of the square of chunks to export
+     * @param output Output file (written via a temp file, renamed when complete)
+     * @return The running job
+     */
+    public static VoxelExportJob export(ServerWorld world, BlockPos center, int radiusChunks, File output) {
+        VoxelExportJob job = new VoxelExportJob(world, center, radiusChunks, output, getStateToClass());
+        jobs.add(job);
+        job.start();
+        return job;
+    }
+    
+    private static void tick(MinecraftServer server) {
+        if (jobs.isEmpty()) {
+            return;
+        }
+        // Share the budget between jobs so one large export can't starve the others
+        int budget = Math.max(1, chunksPerTick / jobs.size());
+        jobs.removeIf(job -> !job.snapshot(budget));
+    }
+    
+    private static void cancelAll() {
+        for (VoxelExportJob job : jobs) {
+            job.cancel();
+        }
+        jobs.clear();
+    }
+    
+    /**
+     * Class ID for every block state raw ID, built once (registries are frozen by then).
+     */
+    private static int[] getStateToClass() {
+        if (stateToClass == null) {
+            int[] table = new int[Block.STATE_IDS.size()];
+            for (int i = 0; i < table.length; i++) {
+                BlockState state = Block.STATE_IDS.get(i);
+                table[i] = state == null || state.isAir() ? 0 : Registries.BLOCK.getRawId(state.getBlock()) + 1;
+            }
+            stateToClass = table;
+            SegmentationModCV.LOGGER.info("Voxel exporter mapped {} block states to classes", table.length);
+        }
+        return stateToClass;
+    }
+    
+    /**
+     * Sets how many chunks are snapshotted per server tick (higher exports faster, costs more tick time).
+     */
+    public static void setChunksPerTick(int chunks) {
+        chunksPerTick = Math.max(1, chunks);
+    }
+}
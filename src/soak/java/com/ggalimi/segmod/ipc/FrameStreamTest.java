@@ -0,0 +1,380 @@
+package com.ggalimi.segmod.ipc;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end test of the local frame stream, run outside the game:
+ * <pre>
+ *   ./gradlew streamTest
+ * </pre>
+ * Starts {@link FrameStreamServer} on a temporary socket and ring, with a
+ * recording {@link FrameStreamServer.Commands} target in place of the game,
+ * connects the way {@link FrameStreamTestClient} does and publishes synthetic
+ * frames the way the capture pipeline does. Checked:
+ * <ul>
+ *   <li>STATUS reports the ring and the publish and drop counters</li>
+ *   <li>CAPTURE and POSE (set, clear, malformed) reach the target and are answered</li>
+ *   <li>a published frame is announced with a FRAME line and reads back from the
+ *       ring with every channel in top-down rows</li>
+ *   <li>a frame too large for a slot is reported and dropped</li>
+ *   <li>the seqlock: a lapped slot, a slot caught mid-write and reads racing the
+ *       writer never return the wrong frame or a torn one</li>
+ * </ul>
+ * Exits with 1 if any check fails. Runs as part of {@code check}.
+ */
+public class FrameStreamTest {
+    
+    private static final int WIDTH = 4;
+    private static final int HEIGHT = 3;
+    private static final int SLOTS = 2;
+    private static final long TIMEOUT_SECONDS = 5;
+    // Racing reads: frames large enough that a copy can be lapped
+    private static final int RACE_SIZE = 64;
+    private static final int RACE_FRAMES = 2000;
+    
+    private static int checks = 0;
+    private static int failures = 0;
+    
+    private static final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+    private static OutputStream out;
+    
+    /**
+     * Records what the server asks of the game.
+     */
+    private static class RecordingCommands implements FrameStreamServer.Commands {
+        final BlockingQueue<String> calls = new LinkedBlockingQueue<>();
+        
+        @Override
+        public void requestCapture() {
+            calls.add("CAPTURE");
+        }
+        
+        @Override
+        public void setPose(double x, double y, double z, float yaw, float pitch) {
+            calls.add(String.format(Locale.ROOT, "POSE %.2f %.2f %.2f %.2f %.2f", x, y, z, yaw, pitch));
+        }
+        
+        @Override
+        public void clearPose() {
+            calls.add("CLEAR");
+        }
+    }
+    
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("segmod-stream");
+        Path socket = directory.resolve("segmod.sock");
+        Path ringFile = directory.resolve("segmod_ring");
+        RecordingCommands commands = new RecordingCommands();
+        
+        FrameStreamServer.start(socket, ringFile, SLOTS, WIDTH, HEIGHT, commands);
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(socket));
+            out = Channels.newOutputStream(channel);
+            startLineReader(channel);
+            
+            testStatus();
+            testCommands(commands);
+            try (SharedFrameRing ring = SharedFrameRing.open(ringFile)) {
+                testPublish(ring);
+                testOversizedFrame();
+                testLappedSlot(ring);
+                testSlotMidWrite(ring, ringFile);
+            }
+        } finally {
+            FrameStreamServer.stop();
+        }
+        check(!Files.exists(socket) && !Files.exists(ringFile), "stop removes the socket and ring files");
+        
+        testRacingReads(directory.resolve("race_ring"));
+        Files.deleteIfExists(directory);
+        
+        System.out.println("[SegMod] Stream test: " + checks + " checks, " + failures + " failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+    
+    private static void testStatus() throws Exception {
+        JsonObject status = status();
+        check(status.get("slots").getAsInt() == SLOTS, "STATUS reports the slot count");
+        check(status.get("slot_size").getAsLong() >= SharedFrameRing.SLOT_HEADER_BYTES
+            + (long) WIDTH * HEIGHT * SharedFrameRing.BYTES_PER_PIXEL, "STATUS slot size holds a full frame");
+        check(status.get("latest_sequence").getAsLong() == 0, "STATUS latest sequence is 0 before any frame");
+        check(status.get("frames_published").getAsLong() == 0, "STATUS counts no frames before any frame");
+        check(status.get("clients").getAsInt() == 1, "STATUS counts the connected client");
+    }
+    
+    private static void testCommands(RecordingCommands commands) throws Exception {
+        send("CAPTURE");
+        expect("OK CAPTURE", "CAPTURE is acknowledged");
+        check("CAPTURE".equals(commands.calls.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS)), "CAPTURE requests a capture");
+        
+        send("POSE 1.5 64 -3 90 -10");
+        expect("OK POSE", "POSE is acknowledged");
+        check("POSE 1.50 64.00 -3.00 90.00 -10.00".equals(commands.calls.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS)),
+            "POSE passes position, yaw and pitch");
+        
+        send("pose clear");
+        expect("OK POSE", "POSE CLEAR is acknowledged, in any case");
+        check("CLEAR".equals(commands.calls.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS)), "POSE CLEAR clears the pose");
+        
+        send("POSE 1 2");
+        expectPrefix("ERROR usage:", "POSE with missing values is rejected");
+        send("POSE 1 2 x 0 0");
+        expectPrefix("ERROR bad number:", "POSE with a bad number is rejected");
+        send("JUMP");
+        expect("ERROR unknown command: JUMP", "unknown commands are rejected");
+        check(commands.calls.isEmpty(), "rejected commands never reach the game");
+    }
+    
+    /**
+     * Publishes frames with bottom-up RGB and depth, as read back from GL, and
+     * checks every channel reads back top-down.
+     */
+    private static void testPublish(SharedFrameRing ring) throws Exception {
+        publishPattern(7, true);
+        expect("FRAME 2 7 " + WIDTH + " " + HEIGHT, "a published frame is announced");
+        checkPattern(ring.read(2), 2, 7, "bottom-up depth");
+        
+        publishPattern(8, false);
+        expect("FRAME 4 8 " + WIDTH + " " + HEIGHT, "the next frame gets the next sequence");
+        checkPattern(ring.read(4), 4, 8, "top-down depth");
+        check(ring.getLatestSequence() == 4, "the ring's latest sequence follows publishes");
+    }
+    
+    private static void testOversizedFrame() throws Exception {
+        int size = 64; // Slots are page-aligned, so well past WIDTH x HEIGHT
+        int pixels = size * size;
+        FrameStreamServer.publish(9, size, size, ByteBuffer.allocateDirect(pixels * 3), new float[pixels],
+            true, new int[pixels], new int[pixels]);
+        expect("ERROR frame 9 (" + size + "x" + size + ") exceeds the ring slot size", "an oversized frame is reported");
+        
+        JsonObject status = status();
+        check(status.get("frames_dropped").getAsLong() == 1, "STATUS counts the dropped frame");
+        check(status.get("frames_published").getAsLong() == 2, "a dropped frame is not counted as published");
+        check(status.get("latest_sequence").getAsLong() == 4, "a dropped frame does not advance the ring");
+    }
+    
+    /**
+     * With two slots, the third frame overwrites the first.
+     */
+    private static void testLappedSlot(SharedFrameRing ring) throws Exception {
+        publishPattern(10, true);
+        expect("FRAME 6 10 " + WIDTH + " " + HEIGHT, "the third frame is announced");
+        check(ring.read(2) == null, "a lapped frame reads as overwritten");
+        checkPattern(ring.read(4), 4, 8, "the frame in the other slot");
+        checkPattern(ring.read(6), 6, 10, "the frame that lapped");
+    }
+    
+    /**
+     * Marks a slot as being written (odd sequence), the state a reader sees while the
+     * writer is mid-publish, and checks neither the old nor the incoming frame is returned.
+     */
+    private static void testSlotMidWrite(SharedFrameRing ring, Path ringFile) throws Exception {
+        // Sequence 4 is in slot 1; the next frame there would be sequence 8
+        long slot = SharedFrameRing.FILE_HEADER_BYTES + ring.getSlotSize();
+        try (FileChannel channel = FileChannel.open(ringFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, slot, 8);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            header.putLong(0, 7L);
+            check(ring.read(4) == null, "a slot being rewritten does not return its old frame");
+            check(ring.read(8) == null, "a slot being written does not return the incoming frame");
+            header.putLong(0, 4L);
+            checkPattern(ring.read(4), 4, 8, "the slot once its sequence is back");
+        }
+    }
+    
+    /**
+     * A writer thread publishes frames that are uniform per frame number while this
+     * thread reads recent sequences; every frame returned must be whole and the one asked for.
+     */
+    private static void testRacingReads(Path ringFile) throws Exception {
+        int pixels = RACE_SIZE * RACE_SIZE;
+        try (SharedFrameRing writer = SharedFrameRing.create(ringFile, SLOTS, pixels);
+             SharedFrameRing reader = SharedFrameRing.open(ringFile)) {
+            Thread publisher = new Thread(() -> {
+                ByteBuffer rgb = ByteBuffer.allocateDirect(pixels * 3);
+                float[] depth = new float[pixels];
+                int[] classIds = new int[pixels];
+                int[] instanceIds = new int[pixels];
+                for (int frame = 1; frame <= RACE_FRAMES; frame++) {
+                    for (int i = 0; i < pixels * 3; i++) {
+                        rgb.put(i, (byte) frame);
+                    }
+                    Arrays.fill(depth, frame);
+                    Arrays.fill(classIds, frame);
+                    Arrays.fill(instanceIds, -frame);
+                    writer.publish(frame, RACE_SIZE, RACE_SIZE, rgb, depth, true, classIds, instanceIds);
+                }
+            }, "SegMod Stream Test Writer");
+            publisher.start();
+            
+            long reads = 0;
+            long overwritten = 0;
+            long torn = 0;
+            while (publisher.isAlive() || reads == 0) {
+                long latest = reader.getLatestSequence();
+                for (long sequence = latest; sequence > 0 && sequence > latest - 2L * SLOTS; sequence -= 2) {
+                    SharedFrameRing.Frame frame = reader.read(sequence);
+                    reads++;
+                    if (frame == null) {
+                        overwritten++;
+                    } else if (!isUniform(frame, (int) (sequence / 2))) {
+                        torn++;
+                    }
+                }
+                Thread.yield();
+            }
+            publisher.join();
+            
+            check(torn == 0, "racing reads never return a torn or wrong frame (" + torn + " of " + reads + ")");
+            check(reader.getLatestSequence() == 2L * RACE_FRAMES, "the writer's last frame is the latest");
+            System.out.println("[SegMod] Racing reads: " + reads + " reads, " + overwritten + " detected as overwritten");
+        }
+        Files.deleteIfExists(ringFile);
+    }
+    
+    private static boolean isUniform(SharedFrameRing.Frame frame, int frameNumber) {
+        if (frame.frameNumber != frameNumber || frame.width != RACE_SIZE || frame.height != RACE_SIZE) {
+            return false;
+        }
+        for (byte b : frame.rgb) {
+            if (b != (byte) frameNumber) {
+                return false;
+            }
+        }
+        for (int i = 0; i < frame.depth.length; i++) {
+            if (frame.depth[i] != frameNumber || frame.classIds[i] != frameNumber || frame.instanceIds[i] != -frameNumber) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Publishes a frame whose every value encodes its top-down position, like the
+     * capture pipeline would: RGB bottom-up, labels top-down, depth either way.
+     */
+    private static void publishPattern(int frameNumber, boolean depthBottomUp) {
+        int pixels = WIDTH * HEIGHT;
+        ByteBuffer rgb = ByteBuffer.allocateDirect(pixels * 3);
+        float[] depth = new float[pixels];
+        int[] classIds = new int[pixels];
+        int[] instanceIds = new int[pixels];
+        for (int y = 0; y < HEIGHT; y++) {
+            int bottomUpRow = HEIGHT - 1 - y;
+            for (int x = 0; x < WIDTH; x++) {
+                int i = y * WIDTH + x;
+                int glIndex = bottomUpRow * WIDTH + x;
+                for (int c = 0; c < 3; c++) {
+                    rgb.put(glIndex * 3 + c, (byte) (frameNumber * 16 + i * 3 + c));
+                }
+                depth[depthBottomUp ? glIndex : i] = frameNumber + i / 100.0f;
+                classIds[i] = frameNumber * 1000 + i;
+                instanceIds[i] = -(frameNumber * 1000 + i);
+            }
+        }
+        FrameStreamServer.publish(frameNumber, WIDTH, HEIGHT, rgb, depth, depthBottomUp, classIds, instanceIds);
+    }
+    
+    private static void checkPattern(SharedFrameRing.Frame frame, long sequence, int frameNumber, String what) {
+        if (frame == null) {
+            check(false, what + ": frame " + sequence + " reads back");
+            return;
+        }
+        boolean header = frame.sequence == sequence && frame.frameNumber == frameNumber
+            && frame.width == WIDTH && frame.height == HEIGHT;
+        boolean rgb = true;
+        boolean depth = true;
+        boolean labels = true;
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            for (int c = 0; c < 3; c++) {
+                rgb &= frame.rgb[i * 3 + c] == (byte) (frameNumber * 16 + i * 3 + c);
+            }
+            depth &= frame.depth[i] == frameNumber + i / 100.0f;
+            labels &= frame.classIds[i] == frameNumber * 1000 + i && frame.instanceIds[i] == -(frameNumber * 1000 + i);
+        }
+        check(header, what + ": sequence, frame number and size");
+        check(rgb, what + ": RGB in top-down rows");
+        check(depth, what + ": depth in top-down rows");
+        check(labels, what + ": class and instance IDs");
+    }
+    
+    private static JsonObject status() throws Exception {
+        send("STATUS");
+        String line = nextLine();
+        check(line != null && line.startsWith("STATUS "), "STATUS replies with STATUS {json}");
+        if (line == null || !line.startsWith("STATUS ")) {
+            throw new IllegalStateException("No STATUS reply: " + line);
+        }
+        return JsonParser.parseString(line.substring("STATUS ".length())).getAsJsonObject();
+    }
+    
+    /**
+     * Reads server lines on a separate thread, so a missing reply fails after a timeout instead of hanging.
+     */
+    private static void startLineReader(SocketChannel channel) {
+        Thread thread = new Thread(() -> {
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+                String line;
+                while ((line = in.readLine()) != null) {
+                    lines.add(line);
+                }
+            } catch (IOException e) {
+                // Closed at the end of the test
+            }
+        }, "SegMod Stream Test Reader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    private static void send(String command) throws IOException {
+        out.write((command + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+    
+    private static String nextLine() throws InterruptedException {
+        return lines.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+    
+    private static void expect(String expected, String what) throws InterruptedException {
+        String line = nextLine();
+        check(expected.equals(line), what + (expected.equals(line) ? "" : " (got " + line + ")"));
+    }
+    
+    private static void expectPrefix(String prefix, String what) throws InterruptedException {
+        String line = nextLine();
+        boolean matches = line != null && line.startsWith(prefix);
+        check(matches, what + (matches ? "" : " (got " + line + ")"));
+    }
+    
+    private static void check(boolean passed, String what) {
+        checks++;
+        if (!passed) {
+            failures++;
+            System.out.println("[SegMod] FAIL: " + what);
+        }
+    }
+}
@@ -0,0 +1,449 @@
+package com.ggalimi.segmod.soak;
+
+import com.ggalimi.segmod.ipc.SharedFrameRing;
+import com.ggalimi.segmod.render.CapturePipeline;
+import com.ggalimi.segmod.render.FrameDeduplicator;
+import com.ggalimi.segmod.util.DepthExtractor;
+import com.ggalimi.segmod.util.FrameManifest;
+import com.ggalimi.segmod.util.FrameWriter;
+import com.ggalimi.segmod.util.RunManifest;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import net.minecraft.Bootstrap;
+import net.minecraft.SharedConstants;
+import net.minecraft.util.math.Vec3d;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Soak test for the capture pipeline, run outside the game:
+ * <pre>
+ *   ./gradlew soakTest -PsoakArgs="--duration 600 --width 1920 --height 1080 --layout PACKED"
+ * </pre>
+ * Minecraft's registries are bootstrapped headless so block class IDs and
+ * colors are real, but there is no client, window or GL context. A
+ * {@link FrameSource} replaces the framebuffer readback and the client world;
+ * everything after that is the game's own code: FrameDeduplicator, then
+ * {@link CapturePipeline} (the same instance type FrameCapture runs, with
+ * SegmentationRenderer casting the label rays), optional frame ring
+ * publishing, and the {@link FrameWriter} with its manifest. It lives in its
+ * own {@code soak} source set, so none of it ships in the mod jar.
+ *
+ * Frames are captured back to back (or at {@code --rate} per second) for
+ * {@code --duration} seconds. The report ({@code run_<id>.json} in {@code --output},
+ * default {@code soak-output}) has achieved FPS, per-stage capture time percentiles (the time a
+ * capture would block the render thread), writer MB/s and latency, and heap,
+ * direct buffer, mapped buffer and RSS samples with their growth after warmup.
+ * With {@code --baseline <report>}, FPS, p99 capture time and direct memory
+ * growth are compared against an earlier report and the exit code is 1 if any
+ * regressed by more than {@code --tolerance}. No baseline is checked in; record
+ * one on the machine that runs the comparison. The harness has not yet been run
+ * through Loom's {@code soakTest} task against the remapped jars.
+ */
+public class CaptureSoakTest {
+    
+    private static final double MB = 1024.0 * 1024.0;
+    
+    // Settings
+    private static int duration = 60;
+    private static int warmup = 10;
+    private static int width = 1280;
+    private static int height = 720;
+    private static float fov = 70.0f;
+    private static double rate = 0; // Frames per second, 0 = as fast as possible
+    private static int sampleRate = 4;
+    private static int poolSize = 32;
+    private static long seed = 1;
+    private static DepthExtractor.DepthFormat depthFormat = DepthExtractor.DepthFormat.MILLIMETRES_16;
+    private static boolean normals = false;
+    private static float edgeThreshold = 0.05f;
+    private static FrameWriter.Layout layout = FrameWriter.Layout.FILES;
+    private static FrameWriter.SyncPolicy syncPolicy = FrameWriter.SyncPolicy.EVERY_N;
+    private static int syncInterval = 30;
+    private static boolean directIo = false;
+    private static int segmentMegabytes = 1024;
+    private static Path ringPath = null;
+    private static File outputDirectory = new File("soak-output");
+    private static File baseline = null;
+    private static double tolerance = 0.10;
+    private static boolean clean = false;
+    private static int memoryInterval = 5;
+    
+    public static void main(String[] args) throws Exception {
+        parseArgs(args);
+        System.setProperty("java.awt.headless", "true");
+        SharedConstants.createGameVersion();
+        Bootstrap.initialize();
+        
+        outputDirectory.mkdirs();
+        RunManifest report = new RunManifest(outputDirectory);
+        File frameDirectory = new File(outputDirectory, "run_" + report.getRunId());
+        frameDirectory.mkdirs();
+        
+        System.out.println("[SegMod] Generating synthetic world");
+        SyntheticVoxelWorld world = new SyntheticVoxelWorld(512, 96, 512, seed);
+        FrameSource source = new SyntheticFrameSource(world, width, height, fov, poolSize);
+        
+        FrameManifest manifest = new FrameManifest(frameDirectory, "frames", false);
+        FrameWriter writer = new FrameWriter(frameDirectory, "data", manifest, layout, syncPolicy, syncInterval,
+            directIo, segmentMegabytes * 1024L * 1024L, new File(frameDirectory, "stats.bin"));
+        SharedFrameRing ring = ringPath != null ? SharedFrameRing.create(ringPath, 4, width * height) : null;
+        CapturePipeline pipeline = new CapturePipeline();
+        pipeline.setDepthFormat(depthFormat);
+        pipeline.setNormalsEnabled(normals, edgeThreshold);
+        pipeline.setSampleRate(sampleRate);
+        pipeline.setPublisher(ring != null ? ring::publish : null);
+        
+        Timings total = new Timings();
+        Timings labels = new Timings();
+        Timings encode = new Timings();
+        JsonArray memory = new JsonArray();
+        JsonObject warmMemory = null;
+        
+        System.out.println("[SegMod] Soak test: " + width + "x" + height + " for " + duration + " s (" + warmup + " s warmup)");
+        long start = System.nanoTime();
+        long end = start + duration * 1_000_000_000L;
+        long warmEnd = start + warmup * 1_000_000_000L;
+        long nextSample = start;
+        long measuredStart = -1;
+        int frames = 0;
+        int measuredFrames = 0;
+        int skipped = 0;
+        long bytesAtWarmEnd = 0;
+        
+        long now = start;
+        while (now < end) {
+            if (rate > 0) {
+                long slot = start + (long) (frames / rate * 1e9);
+                if (slot > now) {
+                    Thread.sleep((slot - now) / 1_000_000, (int) ((slot - now) % 1_000_000));
+                }
+            }
+            
+            FrameSource.Frame frame = source.nextFrame();
+            long captureStart = System.nanoTime();
+            long[] stages = captureFrame(pipeline, frame, frames, source, writer);
+            long captureEnd = System.nanoTime();
+            if (stages == null) {
+                skipped++;
+            }
+            frames++;
+            
+            now = System.nanoTime();
+            boolean measuring = captureStart >= warmEnd;
+            if (measuring) {
+                if (measuredStart < 0) {
+                    measuredStart = captureStart;
+                    bytesAtWarmEnd = writer.getStats().get("bytes").getAsLong();
+                }
+                measuredFrames++;
+                total.add(captureEnd - captureStart);
+                if (stages != null) {
+                    labels.add(stages[0]);
+                    encode.add(stages[1]);
+                }
+            }
+            
+            if (now >= nextSample) {
+                JsonObject sample = sampleMemory((now - start) / 1e9);
+                memory.add(sample);
+                if (measuring && warmMemory == null) {
+                    warmMemory = sample;
+                }
+                nextSample += memoryInterval * 1_000_000_000L;
+                System.out.println(String.format("[SegMod] %.0f s: %d frames, %.1f FPS, direct %.1f MB, heap %.1f MB",
+                    (now - start) / 1e9, frames, frames / ((now - start) / 1e9),
+                    sample.get("direct_mb").getAsDouble(), sample.get("heap_mb").getAsDouble()));
+            }
+        }
+        
+        // Captured throughput stops here; draining the writer's backlog is reported separately
+        double measuredSeconds = measuredStart < 0 ? 0.0 : (now - measuredStart) / 1e9;
+        long drainStart = System.nanoTime();
+        writer.close();
+        manifest.close();
+        double drainSeconds = (System.nanoTime() - drainStart) / 1e9;
+        if (ring != null) {
+            ring.close();
+        }
+        JsonObject finalMemory = sampleMemory((System.nanoTime() - start) / 1e9);
+        memory.add(finalMemory);
+        JsonObject writerStats = writer.getStats();
+        
+        // Report
+        JsonObject settings = new JsonObject();
+        settings.addProperty("duration_s", duration);
+        settings.addProperty("warmup_s", warmup);
+        settings.addProperty("width", width);
+        settings.addProperty("height", height);
+        settings.addProperty("rate", rate);
+        settings.addProperty("sample_rate", sampleRate);
+        settings.addProperty("pool", poolSize);
+        settings.addProperty("seed", seed);
+        settings.addProperty("depth_format", depthFormat.name());
+        settings.addProperty("normals", normals);
+        settings.addProperty("layout", layout.name());
+        settings.addProperty("sync_policy", syncPolicy.name());
+        settings.addProperty("sync_interval", syncInterval);
+        settings.addProperty("direct_io", directIo);
+        settings.addProperty("ring", ringPath != null);
+        settings.addProperty("output", frameDirectory.getAbsolutePath());
+        settings.addProperty("java", System.getProperty("java.version"));
+        settings.addProperty("processors", Runtime.getRuntime().availableProcessors());
+        
+        JsonObject throughput = new JsonObject();
+        throughput.addProperty("frames", frames);
+        throughput.addProperty("frames_measured", measuredFrames);
+        throughput.addProperty("frames_skipped", skipped);
+        throughput.addProperty("fps", measuredSeconds > 0 ? measuredFrames / measuredSeconds : 0.0);
+        long measuredBytes = writerStats.get("bytes").getAsLong() - bytesAtWarmEnd;
+        throughput.addProperty("disk_mb_per_s", measuredSeconds > 0 ? measuredBytes / MB / measuredSeconds : 0.0);
+        throughput.addProperty("mb_per_frame", frames > 0 ? writerStats.get("bytes").getAsLong() / MB / frames : 0.0);
+        throughput.addProperty("writer_drain_s", drainSeconds);
+        
+        JsonObject latency = new JsonObject();
+        latency.add("total", total.toJson());
+        latency.add("labels", labels.toJson());
+        latency.add("encode", encode.toJson());
+        
+        JsonObject memorySection = new JsonObject();
+        memorySection.add("samples", memory);
+        if (warmMemory != null) {
+            for (String key : new String[]{"heap_mb", "direct_mb", "mapped_mb", "rss_mb"}) {
+                double growth = finalMemory.get(key).getAsDouble() - warmMemory.get(key).getAsDouble();
+                memorySection.addProperty(key.replace("_mb", "_growth_mb"), growth);
+            }
+        }
+        
+        report.setSection("settings", settings);
+        report.setSection("throughput", throughput);
+        report.setSection("latency_ms", latency);
+        report.setSection("memory", memorySection);
+        report.setSection("writer", writerStats);
+        
+        List<String> regressions = baseline != null ? compareToBaseline(throughput, latency, memorySection) : List.of();
+        JsonArray regressionJson = new JsonArray();
+        regressions.forEach(regressionJson::add);
+        JsonObject result = new JsonObject();
+        result.add("regressions", regressionJson);
+        report.setSection("result", result);
+        report.write();
+        
+        System.out.println(String.format("[SegMod] %.1f FPS, capture p50 %.1f ms / p99 %.1f ms, disk %.1f MB/s, direct growth %.1f MB",
+            throughput.get("fps").getAsDouble(), total.percentile(0.50) / 1e6, total.percentile(0.99) / 1e6,
+            throughput.get("disk_mb_per_s").getAsDouble(),
+            memorySection.has("direct_growth_mb") ? memorySection.get("direct_growth_mb").getAsDouble() : 0.0));
+        System.out.println("[SegMod] Report: " + report.getFile().getAbsolutePath());
+        
+        if (clean) {
+            deleteFrames(frameDirectory);
+        }
+        for (String regression : regressions) {
+            System.out.println("[SegMod] REGRESSION: " + regression);
+        }
+        System.exit(regressions.isEmpty() ? 0 : 1);
+    }
+    
+    /**
+     * Captures one frame the way FrameCapture does once it has read the framebuffer back.
+     *
+     * @return Nanoseconds spent ray casting labels and in everything else, or null if dropped as a duplicate
+     */
+    private static long[] captureFrame(CapturePipeline pipeline, FrameSource.Frame frame, int frameNumber,
+                                       FrameSource source, FrameWriter writer) throws IOException {
+        long start = System.nanoTime();
+        Vec3d position = new Vec3d(frame.x, frame.y, frame.z);
+        if (FrameDeduplicator.isDuplicate(frame.rgb, frame.width, frame.height, position, frame.yaw, frame.pitch)) {
+            return null;
+        }
+        
+        CapturePipeline.Depth depth = new CapturePipeline.Depth();
+        depth.raw = frame.rawDepth;
+        depth.bottomUp = true;
+        
+        CapturePipeline.Frame input = new CapturePipeline.Frame();
+        input.number = frameNumber;
+        input.id = String.format("frame%06d", frameNumber);
+        input.width = frame.width;
+        input.height = frame.height;
+        input.rgb = frame.rgb;
+        input.depth = depth;
+        input.clipPlanes = new float[]{frame.nearPlane, frame.farPlane};
+        input.nearPlane = frame.nearPlane;
+        input.farPlane = frame.farPlane;
+        input.fovY = frame.fovY;
+        input.tanHalfFovY = (float) Math.tan(Math.toRadians(frame.fovY / 2.0));
+        input.tanHalfFovX = input.tanHalfFovY * frame.width / frame.height;
+        input.position = position;
+        input.yaw = frame.yaw;
+        input.pitch = frame.pitch;
+        input.labels = source.labelSource(frame);
+        
+        CapturePipeline.Capture capture = pipeline.process(input);
+        writer.submit(capture.record, capture.outputs, capture.files, capture.statistics);
+        
+        return new long[]{capture.labelNanos, System.nanoTime() - start - capture.labelNanos};
+    }
+    
+    /**
+     * Heap, direct and mapped buffer pools, and process RSS, in MB.
+     */
+    private static JsonObject sampleMemory(double seconds) {
+        JsonObject sample = new JsonObject();
+        sample.addProperty("t", seconds);
+        Runtime runtime = Runtime.getRuntime();
+        sample.addProperty("heap_mb", (runtime.totalMemory() - runtime.freeMemory()) / MB);
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct") || pool.getName().equals("mapped")) {
+                sample.addProperty(pool.getName() + "_mb", pool.getMemoryUsed() / MB);
+                sample.addProperty(pool.getName() + "_buffers", pool.getCount());
+            }
+        }
+        sample.addProperty("rss_mb", readRssKilobytes() / 1024.0);
+        return sample;
+    }
+    
+    /**
+     * Resident set size from /proc (Linux), or -1 elsewhere.
+     */
+    private static long readRssKilobytes() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"), StandardCharsets.UTF_8)) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux
+        }
+        return -1;
+    }
+    
+    /**
+     * Compares FPS, p99 capture time and direct memory growth against a previous report.
+     *
+     * @return One line per metric that regressed by more than the tolerance
+     */
+    private static List<String> compareToBaseline(JsonObject throughput, JsonObject latency, JsonObject memory) throws IOException {
+        JsonObject previous = JsonParser.parseString(Files.readString(baseline.toPath())).getAsJsonObject();
+        List<String> regressions = new ArrayList<>();
+        
+        double fps = throughput.get("fps").getAsDouble();
+        double baseFps = previous.getAsJsonObject("throughput").get("fps").getAsDouble();
+        if (fps < baseFps * (1.0 - tolerance)) {
+            regressions.add(String.format("fps %.2f < baseline %.2f", fps, baseFps));
+        }
+        
+        double p99 = latency.getAsJsonObject("total").get("p99").getAsDouble();
+        double baseP99 = previous.getAsJsonObject("latency_ms").getAsJsonObject("total").get("p99").getAsDouble();
+        if (p99 > baseP99 * (1.0 + tolerance)) {
+            regressions.add(String.format("capture p99 %.2f ms > baseline %.2f ms", p99, baseP99));
+        }
+        
+        JsonObject baseMemory = previous.getAsJsonObject("memory");
+        if (memory.has("direct_growth_mb") && baseMemory.has("direct_growth_mb")) {
+            double growth = memory.get("direct_growth_mb").getAsDouble();
+            double baseGrowth = baseMemory.get("direct_growth_mb").getAsDouble();
+            // Growth near zero is noise; allow one frame's readback on top of the tolerance
+            double slack = width * height * 3 / MB;
+            if (growth > Math.max(baseGrowth, 0.0) * (1.0 + tolerance) + slack) {
+                regressions.add(String.format("direct memory growth %.1f MB > baseline %.1f MB", growth, baseGrowth));
+            }
+        }
+        return regressions;
+    }
+    
+    private static void deleteFrames(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+    
+    private static void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--duration" -> duration = Integer.parseInt(args[++i]);
+                case "--warmup" -> warmup = Integer.parseInt(args[++i]);
+                case "--width" -> width = Integer.parseInt(args[++i]);
+                case "--height" -> height = Integer.parseInt(args[++i]);
+                case "--fov" -> fov = Float.parseFloat(args[++i]);
+                case "--rate" -> rate = Double.parseDouble(args[++i]);
+                case "--sample-rate" -> sampleRate = Integer.parseInt(args[++i]);
+                case "--pool" -> poolSize = Integer.parseInt(args[++i]);
+                case "--seed" -> seed = Long.parseLong(args[++i]);
+                case "--depth-format" -> depthFormat = DepthExtractor.DepthFormat.valueOf(args[++i]);
+                case "--normals" -> normals = true;
+                case "--edge-threshold" -> edgeThreshold = Float.parseFloat(args[++i]);
+                case "--layout" -> layout = FrameWriter.Layout.valueOf(args[++i]);
+                case "--sync" -> syncPolicy = FrameWriter.SyncPolicy.valueOf(args[++i]);
+                case "--sync-interval" -> syncInterval = Integer.parseInt(args[++i]);
+                case "--direct-io" -> directIo = true;
+                case "--segment-mb" -> segmentMegabytes = Integer.parseInt(args[++i]);
+                case "--ring" -> ringPath = Path.of(args[++i]);
+                case "--output" -> outputDirectory = new File(args[++i]);
+                case "--baseline" -> baseline = new File(args[++i]);
+                case "--tolerance" -> tolerance = Double.parseDouble(args[++i]);
+                case "--clean" -> clean = true;
+                case "--memory-interval" -> memoryInterval = Math.max(1, Integer.parseInt(args[++i]));
+                default -> throw new IllegalArgumentException("Unknown option " + arg + "; see CaptureSoakTest javadoc");
+            }
+        }
+    }
+    
+    /**
+     * Growable list of nanosecond durations with percentiles in milliseconds.
+     */
+    private static class Timings {
+        private long[] values = new long[1024];
+        private int count = 0;
+        
+        void add(long nanos) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            values[count++] = nanos;
+        }
+        
+        double percentile(double p) {
+            if (count == 0) {
+                return 0.0;
+            }
+            long[] sorted = Arrays.copyOf(values, count);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.min(count - 1, Math.floor(p * count))];
+        }
+        
+        JsonObject toJson() {
+            long[] sorted = Arrays.copyOf(values, count);
+            Arrays.sort(sorted);
+            double sum = 0;
+            for (long v : sorted) {
+                sum += v;
+            }
+            JsonObject json = new JsonObject();
+            json.addProperty("count", count);
+            json.addProperty("mean", count > 0 ? sum / count / 1e6 : 0.0);
+            json.addProperty("p50", percentile(0.50) / 1e6);
+            json.addProperty("p95", percentile(0.95) / 1e6);
+            json.addProperty("p99", percentile(0.99) / 1e6);
+            json.addProperty("max", count > 0 ? sorted[count - 1] / 1e6 : 0.0);
+            return json;
+        }
+    }
+}
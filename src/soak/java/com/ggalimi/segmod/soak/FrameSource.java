@@ -0,0 +1,61 @@
+package com.ggalimi.segmod.soak;
+
+import com.ggalimi.segmod.render.LabelSource;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Stand-in for the live game in {@link CaptureSoakTest}: supplies what
+ * FrameCapture would otherwise read back from the GPU, and the world its
+ * label rays are cast against instead of the client world.
+ */
+public interface FrameSource {
+    
+    /**
+     * Color and depth of the next frame, in the layout of a framebuffer readback.
+     */
+    Frame nextFrame();
+    
+    /**
+     * The world as seen from a frame's camera, for SegmentationRenderer to
+     * ray-cast labels against on the calling thread.
+     */
+    LabelSource labelSource(Frame frame);
+    
+    /**
+     * One frame as read back from the framebuffer.
+     */
+    class Frame {
+        public final int width;
+        public final int height;
+        /** RGB, 3 bytes per pixel, bottom-up rows, direct buffer like glReadPixels. */
+        public final ByteBuffer rgb;
+        /** Non-linear [0, 1] depth buffer values, bottom-up rows, 1 = sky. */
+        public final float[] rawDepth;
+        public final float nearPlane;
+        public final float farPlane;
+        public final float fovY;
+        // Camera pose, in blocks and degrees
+        public final double x;
+        public final double y;
+        public final double z;
+        public final float yaw;
+        public final float pitch;
+        
+        public Frame(int width, int height, ByteBuffer rgb, float[] rawDepth, float nearPlane, float farPlane,
+                     float fovY, double x, double y, double z, float yaw, float pitch) {
+            this.width = width;
+            this.height = height;
+            this.rgb = rgb;
+            this.rawDepth = rawDepth;
+            this.nearPlane = nearPlane;
+            this.farPlane = farPlane;
+            this.fovY = fovY;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.yaw = yaw;
+            this.pitch = pitch;
+        }
+    }
+}
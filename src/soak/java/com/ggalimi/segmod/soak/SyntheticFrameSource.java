@@ -0,0 +1,212 @@
+package com.ggalimi.segmod.soak;
+
+import com.ggalimi.segmod.render.EntityGrid;
+import com.ggalimi.segmod.render.LabelSource;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * {@link FrameSource} that renders a {@link SyntheticVoxelWorld} on the CPU.
+ *
+ * The camera flies a loop around the world looking slightly down, so every
+ * frame has a new pose and new content. Color and depth stand in for the GPU
+ * and are ray-cast once per pixel, which is far slower than the GPU, so a
+ * pool of frames is rendered up front and replayed; each replayed frame still
+ * gets its own direct RGB buffer, like a readback. Label rays are cast on
+ * demand by SegmentationRenderer, on the caller's thread, as in game.
+ * The world has no entities.
+ */
+public class SyntheticFrameSource implements FrameSource {
+    
+    // Same limit as SegmentationRenderer
+    private static final double LABEL_RAY_DISTANCE = 100.0;
+    private static final double RENDER_DISTANCE = 128.0;
+    private static final float NEAR_PLANE = 0.05f;
+    private static final float FAR_PLANE = (float) (RENDER_DISTANCE * 4.0);
+    private static final int SKY_COLOR = 0x78A7FF;
+    
+    private final SyntheticVoxelWorld world;
+    private final int width;
+    private final int height;
+    private final float fovY;
+    private final int pathFrames;
+    private final Frame[] pool;
+    private int frameIndex = 0;
+    
+    /**
+     * @param world World to render
+     * @param width Frame width
+     * @param height Frame height
+     * @param fovY Vertical field of view in degrees
+     * @param poolSize Frames rendered up front and replayed, 0 to render every frame
+     */
+    public SyntheticFrameSource(SyntheticVoxelWorld world, int width, int height, float fovY, int poolSize) {
+        this.world = world;
+        this.width = width;
+        this.height = height;
+        this.fovY = fovY;
+        // One loop around the world per 3600 frames, or per pool
+        this.pathFrames = poolSize > 0 ? poolSize : 3600;
+        this.pool = new Frame[poolSize];
+        
+        for (int i = 0; i < poolSize; i++) {
+            pool[i] = render(i);
+            if ((i + 1) % 8 == 0 || i + 1 == poolSize) {
+                System.out.println("[SegMod] Rendered " + (i + 1) + "/" + poolSize + " synthetic frames");
+            }
+        }
+    }
+    
+    @Override
+    public Frame nextFrame() {
+        int index = frameIndex++;
+        if (pool.length == 0) {
+            return render(index);
+        }
+        
+        Frame frame = pool[index % pool.length];
+        ByteBuffer rgb = ByteBuffer.allocateDirect(frame.rgb.capacity());
+        rgb.put(0, frame.rgb, 0, frame.rgb.capacity());
+        return new Frame(frame.width, frame.height, rgb, frame.rawDepth, frame.nearPlane, frame.farPlane,
+            frame.fovY, frame.x, frame.y, frame.z, frame.yaw, frame.pitch);
+    }
+    
+    @Override
+    public LabelSource labelSource(Frame frame) {
+        Camera camera = new Camera(frame);
+        double[] dir = new double[3];
+        return new LabelSource() {
+            @Override
+            public void sample(int x, int y, Sample out) {
+                camera.ray(x, y, dir);
+                if (world.raycast(frame.x, frame.y, frame.z, dir[0], dir[1], dir[2], LABEL_RAY_DISTANCE)) {
+                    out.classId = world.getHitClassId();
+                    out.block = world.getHitIndex();
+                }
+            }
+            
+            @Override
+            public boolean adjacent(long blockA, long blockB) {
+                return world.adjacent((int) blockA, (int) blockB);
+            }
+            
+            @Override
+            public List<EntityGrid.Entry> getEntities() {
+                return List.of();
+            }
+        };
+    }
+    
+    /**
+     * Ray-casts color and depth for every pixel of frame {@code index} on the camera path.
+     */
+    private Frame render(int index) {
+        // Loop around the world center, facing along the path and swaying a little
+        double angle = 2.0 * Math.PI * index / pathFrames;
+        double radius = Math.min(world.getSizeX(), world.getSizeZ()) * 0.3;
+        double x = world.getSizeX() / 2.0 + Math.cos(angle) * radius;
+        double z = world.getSizeZ() / 2.0 + Math.sin(angle) * radius;
+        double y = world.getHeight((int) x, (int) z) + 8.5;
+        float yaw = (float) Math.toDegrees(angle) + 180.0f + (float) (20.0 * Math.sin(angle * 7.0));
+        float pitch = 15.0f + (float) (10.0 * Math.sin(angle * 5.0));
+        
+        ByteBuffer rgb = ByteBuffer.allocateDirect(width * height * 3);
+        float[] rawDepth = new float[width * height];
+        Frame frame = new Frame(width, height, rgb, rawDepth, NEAR_PLANE, FAR_PLANE, fovY, x, y, z, yaw, pitch);
+        Camera camera = new Camera(frame);
+        double[] dir = new double[3];
+        
+        for (int py = 0; py < height; py++) {
+            int row = (height - 1 - py) * width; // Bottom-up, like glReadPixels
+            for (int px = 0; px < width; px++) {
+                camera.ray(px, py, dir);
+                int color;
+                if (world.raycast(x, y, z, dir[0], dir[1], dir[2], RENDER_DISTANCE)) {
+                    // The depth buffer holds view-space z, not distance along the ray
+                    double viewZ = world.getHitDistance() * camera.forwardDot(dir);
+                    double ndc = (FAR_PLANE + NEAR_PLANE - 2.0 * FAR_PLANE * NEAR_PLANE / viewZ) / (FAR_PLANE - NEAR_PLANE);
+                    rawDepth[row + px] = (float) (ndc * 0.5 + 0.5);
+                    color = shade(world.getHitColor(), world.getHitAxis(), world.getHitIndex(),
+                        world.getHitDistance() / RENDER_DISTANCE);
+                } else {
+                    rawDepth[row + px] = 1.0f;
+                    color = SKY_COLOR;
+                }
+                int i = (row + px) * 3;
+                rgb.put(i, (byte) (color >> 16));
+                rgb.put(i + 1, (byte) (color >> 8));
+                rgb.put(i + 2, (byte) color);
+            }
+        }
+        return frame;
+    }
+    
+    /**
+     * Face shading, per-block variation standing in for texture, and distance fog.
+     */
+    private static int shade(int color, int axis, int block, double fog) {
+        double light = axis == 1 ? 1.0 : axis == 0 ? 0.8 : 0.6;
+        light *= 0.92 + 0.16 * (((block * 0x9E3779B9) >>> 24) / 255.0);
+        fog = Math.min(1.0, fog * fog);
+        int result = 0;
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            double c = Math.min(255.0, ((color >> shift) & 0xFF) * light);
+            double sky = (SKY_COLOR >> shift) & 0xFF;
+            result |= ((int) (c + (sky - c) * fog)) << shift;
+        }
+        return result;
+    }
+    
+    /**
+     * Pinhole camera with Minecraft's yaw/pitch conventions.
+     */
+    private static class Camera {
+        private final double[] forward = new double[3];
+        private final double[] right = new double[3];
+        private final double[] up = new double[3];
+        private final double tanHalfFovX;
+        private final double tanHalfFovY;
+        private final int width;
+        private final int height;
+        
+        Camera(Frame frame) {
+            double yaw = Math.toRadians(frame.yaw);
+            double pitch = Math.toRadians(frame.pitch);
+            forward[0] = -Math.sin(yaw) * Math.cos(pitch);
+            forward[1] = -Math.sin(pitch);
+            forward[2] = Math.cos(yaw) * Math.cos(pitch);
+            right[0] = -Math.cos(yaw);
+            right[2] = -Math.sin(yaw);
+            // up = right x forward
+            up[0] = right[1] * forward[2] - right[2] * forward[1];
+            up[1] = right[2] * forward[0] - right[0] * forward[2];
+            up[2] = right[0] * forward[1] - right[1] * forward[0];
+            tanHalfFovY = Math.tan(Math.toRadians(frame.fovY / 2.0));
+            tanHalfFovX = tanHalfFovY * frame.width / frame.height;
+            width = frame.width;
+            height = frame.height;
+        }
+        
+        /**
+         * Normalized ray through pixel (px, py), top-down rows.
+         */
+        void ray(int px, int py, double[] out) {
+            double sx = ((2.0 * px + 1.0) / width - 1.0) * tanHalfFovX;
+            double sy = (1.0 - (2.0 * py + 1.0) / height) * tanHalfFovY;
+            double len = 0.0;
+            for (int i = 0; i < 3; i++) {
+                out[i] = forward[i] + right[i] * sx + up[i] * sy;
+                len += out[i] * out[i];
+            }
+            len = Math.sqrt(len);
+            for (int i = 0; i < 3; i++) {
+                out[i] /= len;
+            }
+        }
+        
+        double forwardDot(double[] dir) {
+            return forward[0] * dir[0] + forward[1] * dir[1] + forward[2] * dir[2];
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.ggalimi.segmod.soak;
+
+import com.ggalimi.segmod.util.BlockClassMap;
+import net.minecraft.block.Block;
+import net.minecraft.block.Blocks;
+
+import java.util.Random;
+
+/**
+ * Procedural block volume standing in for the client world in {@link CaptureSoakTest}.
+ *
+ * Rolling terrain (stone, dirt, grass, sand shores, water below sea level)
+ * with scattered trees, generated once from a seed. Blocks are stored as
+ * indices into a small palette of real blocks, so labels carry the same class
+ * IDs ({@link BlockClassMap#getClassId}) as a live capture. Rays are cast with
+ * a voxel DDA; outside the volume is air.
+ */
+public class SyntheticVoxelWorld {
+    
+    private static final int SEA_LEVEL = 28;
+    
+    // Palette index 0 is air
+    private static final int AIR = 0;
+    private static final int STONE = 1;
+    private static final int DIRT = 2;
+    private static final int GRASS = 3;
+    private static final int SAND = 4;
+    private static final int WATER = 5;
+    private static final int LOG = 6;
+    private static final int LEAVES = 7;
+    private static final int GRAVEL = 8;
+    
+    private static final Block[] PALETTE = {
+        Blocks.AIR, Blocks.STONE, Blocks.DIRT, Blocks.GRASS_BLOCK, Blocks.SAND,
+        Blocks.WATER, Blocks.OAK_LOG, Blocks.OAK_LEAVES, Blocks.GRAVEL
+    };
+    
+    // Rough average texture colors, for the synthetic RGB image
+    private static final int[] TEXTURE_COLORS = {
+        0x000000, 0x7D7D7D, 0x866043, 0x5D9C3A, 0xDBD3A0,
+        0x3F76E4, 0x6B5130, 0x3B7A1F, 0x847F7E
+    };
+    
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+    private final long seed;
+    private final byte[] blocks;
+    private final int[] classIds = new int[PALETTE.length];
+    private final int[] heights;
+    
+    // Result of the last raycast
+    private int hitBlock;
+    private int hitIndex;
+    private int hitAxis;
+    private double hitDistance;
+    
+    /**
+     * Generates the world.
+     *
+     * @param sizeX Width in blocks
+     * @param sizeY Height in blocks
+     * @param sizeZ Depth in blocks
+     * @param seed Terrain and tree seed
+     */
+    public SyntheticVoxelWorld(int sizeX, int sizeY, int sizeZ, long seed) {
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.sizeZ = sizeZ;
+        this.seed = seed;
+        this.blocks = new byte[sizeX * sizeY * sizeZ];
+        this.heights = new int[sizeX * sizeZ];
+        for (int i = 0; i < PALETTE.length; i++) {
+            classIds[i] = i == AIR ? BlockClassMap.NO_CLASS : BlockClassMap.getClassId(PALETTE[i]);
+        }
+        
+        generateTerrain();
+        generateTrees(new Random(seed));
+    }
+    
+    private void generateTerrain() {
+        for (int x = 0; x < sizeX; x++) {
+            for (int z = 0; z < sizeZ; z++) {
+                double n = 0.0;
+                double amplitude = 1.0;
+                double frequency = 1.0 / 96.0;
+                for (int octave = 0; octave < 4; octave++) {
+                    n += amplitude * noise(x * frequency, z * frequency, octave);
+                    amplitude *= 0.5;
+                    frequency *= 2.0;
+                }
+                int height = Math.min(sizeY - 16, (int) (12 + n * 32));
+                heights[x + z * sizeX] = height;
+                
+                for (int y = 0; y <= Math.max(height, SEA_LEVEL); y++) {
+                    int block;
+                    if (y > height) {
+                        block = WATER;
+                    } else if (y < height - 3) {
+                        block = STONE;
+                    } else if (height <= SEA_LEVEL + 1) {
+                        block = height < SEA_LEVEL - 4 ? GRAVEL : SAND;
+                    } else {
+                        block = y == height ? GRASS : DIRT;
+                    }
+                    blocks[index(x, y, z)] = (byte) block;
+                }
+            }
+        }
+    }
+    
+    private void generateTrees(Random random) {
+        int trees = sizeX * sizeZ / 200;
+        for (int i = 0; i < trees; i++) {
+            int x = 2 + random.nextInt(sizeX - 4);
+            int z = 2 + random.nextInt(sizeZ - 4);
+            int ground = heights[x + z * sizeX];
+            if (blocks[index(x, ground, z)] != GRASS) {
+                continue;
+            }
+            int trunk = 4 + random.nextInt(3);
+            for (int dy = -2; dy <= 1; dy++) {
+                int radius = dy == 1 ? 1 : 2;
+                for (int dx = -radius; dx <= radius; dx++) {
+                    for (int dz = -radius; dz <= radius; dz++) {
+                        set(x + dx, ground + trunk + dy, z + dz, LEAVES);
+                    }
+                }
+            }
+            for (int y = 1; y <= trunk; y++) {
+                set(x, ground + y, z, LOG);
+            }
+        }
+    }
+    
+    /**
+     * Casts a ray through the volume.
+     *
+     * @param ox Origin X
+     * @param oy Origin Y
+     * @param oz Origin Z
+     * @param dx Normalized direction X
+     * @param dy Normalized direction Y
+     * @param dz Normalized direction Z
+     * @param maxDistance Max ray length in blocks
+     * @return true if a block was hit; see {@link #getHitClassId()}, {@link #getHitDistance()} and friends
+     */
+    public boolean raycast(double ox, double oy, double oz, double dx, double dy, double dz, double maxDistance) {
+        int x = (int) Math.floor(ox);
+        int y = (int) Math.floor(oy);
+        int z = (int) Math.floor(oz);
+        int stepX = dx > 0 ? 1 : -1;
+        int stepY = dy > 0 ? 1 : -1;
+        int stepZ = dz > 0 ? 1 : -1;
+        double tDeltaX = dx != 0 ? Math.abs(1.0 / dx) : Double.POSITIVE_INFINITY;
+        double tDeltaY = dy != 0 ? Math.abs(1.0 / dy) : Double.POSITIVE_INFINITY;
+        double tDeltaZ = dz != 0 ? Math.abs(1.0 / dz) : Double.POSITIVE_INFINITY;
+        double tMaxX = dx != 0 ? ((dx > 0 ? x + 1 - ox : ox - x) * tDeltaX) : Double.POSITIVE_INFINITY;
+        double tMaxY = dy != 0 ? ((dy > 0 ? y + 1 - oy : oy - y) * tDeltaY) : Double.POSITIVE_INFINITY;
+        double tMaxZ = dz != 0 ? ((dz > 0 ? z + 1 - oz : oz - z) * tDeltaZ) : Double.POSITIVE_INFINITY;
+        
+        double t = 0.0;
+        int axis = 1;
+        while (t <= maxDistance) {
+            if (x >= 0 && x < sizeX && y >= 0 && y < sizeY && z >= 0 && z < sizeZ) {
+                int i = index(x, y, z);
+                if (blocks[i] != AIR) {
+                    hitBlock = blocks[i];
+                    hitIndex = i;
+                    hitAxis = axis;
+                    hitDistance = t;
+                    return true;
+                }
+            } else if (y >= sizeY && dy >= 0) {
+                break; // Above the volume and climbing: sky
+            }
+            
+            if (tMaxX < tMaxY && tMaxX < tMaxZ) {
+                t = tMaxX;
+                tMaxX += tDeltaX;
+                x += stepX;
+                axis = 0;
+            } else if (tMaxY < tMaxZ) {
+                t = tMaxY;
+                tMaxY += tDeltaY;
+                y += stepY;
+                axis = 1;
+            } else {
+                t = tMaxZ;
+                tMaxZ += tDeltaZ;
+                z += stepZ;
+                axis = 2;
+            }
+        }
+        hitBlock = AIR;
+        hitDistance = maxDistance;
+        return false;
+    }
+    
+    public int getHitClassId() {
+        return classIds[hitBlock];
+    }
+    
+    /**
+     * Packed position of the block hit, unique per block.
+     */
+    public int getHitIndex() {
+        return hitIndex;
+    }
+    
+    /**
+     * Axis of the face the ray entered through (0 = X, 1 = Y, 2 = Z).
+     */
+    public int getHitAxis() {
+        return hitAxis;
+    }
+    
+    public double getHitDistance() {
+        return hitDistance;
+    }
+    
+    /**
+     * Average texture color of the block hit, 0xRRGGBB.
+     */
+    public int getHitColor() {
+        return TEXTURE_COLORS[hitBlock];
+    }
+    
+    /**
+     * Whether two packed block positions touch, including diagonally, or are the same block.
+     */
+    public boolean adjacent(int a, int b) {
+        int ax = a % sizeX, bx = b % sizeX;
+        int az = (a / sizeX) % sizeZ, bz = (b / sizeX) % sizeZ;
+        int ay = a / (sizeX * sizeZ), by = b / (sizeX * sizeZ);
+        return Math.abs(ax - bx) <= 1 && Math.abs(ay - by) <= 1 && Math.abs(az - bz) <= 1;
+    }
+    
+    /**
+     * Terrain surface height (top solid block) at a column, clamped to the volume.
+     */
+    public int getHeight(int x, int z) {
+        x = Math.max(0, Math.min(sizeX - 1, x));
+        z = Math.max(0, Math.min(sizeZ - 1, z));
+        return Math.max(heights[x + z * sizeX], SEA_LEVEL);
+    }
+    
+    public int getSizeX() {
+        return sizeX;
+    }
+    
+    public int getSizeZ() {
+        return sizeZ;
+    }
+    
+    private void set(int x, int y, int z, int block) {
+        if (x >= 0 && x < sizeX && y >= 0 && y < sizeY && z >= 0 && z < sizeZ) {
+            blocks[index(x, y, z)] = (byte) block;
+        }
+    }
+    
+    private int index(int x, int y, int z) {
+        return x + (z + y * sizeZ) * sizeX;
+    }
+    
+    /**
+     * Smooth value noise in [0, 1).
+     */
+    private double noise(double x, double z, int octave) {
+        int x0 = (int) Math.floor(x);
+        int z0 = (int) Math.floor(z);
+        double fx = x - x0;
+        double fz = z - z0;
+        fx = fx * fx * (3 - 2 * fx);
+        fz = fz * fz * (3 - 2 * fz);
+        double a = hash(x0, z0, octave);
+        double b = hash(x0 + 1, z0, octave);
+        double c = hash(x0, z0 + 1, octave);
+        double d = hash(x0 + 1, z0 + 1, octave);
+        return (a + (b - a) * fx) + ((c + (d - c) * fx) - (a + (b - a) * fx)) * fz;
+    }
+    
+    private double hash(int x, int z, int octave) {
+        long h = seed ^ (x * 0x9E3779B97F4A7C15L) ^ (z * 0xC2B2AE3D27D4EB4FL) ^ (octave * 0x165667B19E3779F9L);
+        h = (h ^ (h >>> 31)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 29)) * 0x94D049BB133111EBL;
+        return ((h ^ (h >>> 32)) >>> 11) * 0x1.0p-53;
+    }
+}